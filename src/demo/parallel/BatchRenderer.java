@@ -0,0 +1,420 @@
+package demo.parallel;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Command line renderer for headless machines, it doesn't need JavaFX. Run
+ * with
+ * <pre>
+ * java demo.parallel.BatchRenderer [-min re,im -max re,im | -center re,im -scale s]
+ *     [-windowSize WxH] [-formula f] [-engine e] [-palette p]
+ *     [-antialias true|false] [-threads n] [-bandHeight n]
+ *     [-output file] [-format png|raw] [-resume true|false]
+ * </pre>
+ * Position parameters are the same as the ones of {@link Main}, which
+ * prints them for the current view on the I key. Raw files are 8-bit RGB
+ * pixels line by line without any header.
+ * <p>
+ * The image is rendered in bands of lines which are written out as soon as
+ * they are done, while the next band is being rendered. A band wider than
+ * an {@link OffscreenImage} can hold is split into several images. Memory
+ * taken by bands is bounded, so outputs such as 65536x65536 pixels may be
+ * much larger than the memory. PNG output is deflated by {@link PngWriter}
+ * in segments on the common fork-join pool, so compression of finished
+ * bands overlaps rendering of the next ones.
+ * <p>
+ * Raw output is written to a {@link MappedImageFile} and the number of
+ * finished lines is saved to a progress file next to it after every band.
+ * When rendering is interrupted, running it again with the same parameters
+ * and {@code -resume true} continues from the last finished band. With
+ * {@code -resume true} PNG output is rendered the same way into a raw file
+ * first, which is encoded when all lines are done.
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ */
+public final class BatchRenderer {
+
+    /**
+     * Max width of an image rendered at once
+     */
+    private static final int MAX_IMAGE_WIDTH = 4096;
+
+    /**
+     * Max number of pixels in a band, bands of wide images are lower than
+     * requested to keep within it
+     */
+    private static final int MAX_BAND_PIXELS = 1 << 24;
+
+    /**
+     * Writes bands of lines of the output, top to bottom
+     */
+    private interface LineWriter extends AutoCloseable {
+
+        /**
+         * @param pixels ARGB values line by line
+         * @param y first line
+         * @param count number of lines
+         */
+        void write(int[] pixels, int y, int count) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private double minR = -2.4451320039285465;
+    private double minI = -1.3061943784663503;
+    private double maxR = 0.9425352568739851;
+    private double maxI = 1.2879652356695286;
+    private BigDecimal centerR, centerI;
+    private double scale;
+    private int width = 800;
+    private int height = 600;
+    private FractalFormula formula = FractalFormula.MANDELBROT;
+    private MandelbrotSetRenderer.Engine engine = MandelbrotSetRenderer.Engine.SCALAR;
+    private Palette palette = Palette.CLASSIC;
+    private boolean antialias = true;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int bandHeight = 256;
+    private String output = "mandelbrot.png";
+    private String format;
+    private boolean resume;
+
+    /**
+     * Images of bands by their size, reused from band to band
+     */
+    private final Map<Long, OffscreenImage> images = new HashMap<>();
+
+    public static void main(String[] args) {
+        BatchRenderer renderer = new BatchRenderer();
+        try {
+            renderer.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid parameters: " + e.getMessage());
+            System.exit(1);
+        }
+        try {
+            renderer.render();
+        } catch (IOException e) {
+            System.err.println("Failed to write " + renderer.output + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private void parse(String[] args) {
+        if (args.length % 2 != 0) {
+            throw new IllegalArgumentException("No value for " + args[args.length - 1]);
+        }
+        for (int i = 0; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "-min":
+                    String[] min = value.split(",");
+                    minR = Double.parseDouble(min[0]);
+                    minI = Double.parseDouble(min[1]);
+                    break;
+                case "-max":
+                    String[] max = value.split(",");
+                    maxR = Double.parseDouble(max[0]);
+                    maxI = Double.parseDouble(max[1]);
+                    break;
+                case "-center":
+                    String[] center = value.split(",");
+                    centerR = new BigDecimal(center[0]);
+                    centerI = new BigDecimal(center[1]);
+                    break;
+                case "-scale":
+                    scale = Double.parseDouble(value);
+                    break;
+                case "-windowSize":
+                    String[] size = value.split("x");
+                    width = (int) Double.parseDouble(size[0]);
+                    height = (int) Double.parseDouble(size[1]);
+                    break;
+                case "-formula":
+                    formula = FractalFormula.valueOf(value.toUpperCase(Locale.US));
+                    break;
+                case "-engine":
+                    engine = MandelbrotSetRenderer.Engine.valueOf(value.toUpperCase(Locale.US));
+                    break;
+                case "-palette":
+                    palette = Palette.valueOf(value.toUpperCase(Locale.US));
+                    break;
+                case "-antialias":
+                    antialias = Boolean.parseBoolean(value);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "-bandHeight":
+                    bandHeight = Integer.parseInt(value);
+                    break;
+                case "-output":
+                    output = value;
+                    break;
+                case "-format":
+                    format = value.toLowerCase(Locale.US);
+                    break;
+                case "-resume":
+                    resume = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (width <= 0 || height <= 0 || bandHeight <= 0) {
+            throw new IllegalArgumentException("Sizes must be positive: " + width + "x" + height
+                    + ", band height " + bandHeight);
+        }
+        if (format == null) {
+            format = output.toLowerCase(Locale.US).endsWith(".raw") ? "raw" : "png";
+        }
+        if (!format.equals("png") && !format.equals("raw")) {
+            throw new IllegalArgumentException("Unknown format " + format);
+        }
+        if (centerR == null || scale <= 0) {
+            // Fits the given intervals into the image like Main does
+            centerR = new BigDecimal((minR + maxR) / 2);
+            centerI = new BigDecimal((minI + maxI) / 2);
+            scale = Math.max((maxR - minR) / width, (maxI - minI) / height);
+        }
+    }
+
+    private void render() throws IOException {
+        int lines = Math.max(1, Math.min(Math.min(bandHeight, height), MAX_BAND_PIXELS / width));
+        boolean png = format.equals("png");
+        boolean mapped = !png || resume;
+        Path outputPath = Paths.get(output);
+        Path rawPath = png ? Paths.get(output + ".rgb") : outputPath;
+        Path progressPath = Paths.get(output + ".progress");
+        int first = mapped && resume && Files.exists(rawPath) ? readProgress(progressPath) : 0;
+        if (first > 0) {
+            System.out.println("Resuming at line " + first);
+        }
+        RenderService service = new RenderService(threads, Thread.NORM_PRIORITY);
+        MandelbrotSetRenderer.Engine bandEngine = engine.forScale(scale);
+        ExecutorService writerThread = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "MandelbrotSet band writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // A band is rendered into one buffer while the previous one is written
+        int[][] bands = {new int[width * lines], new int[width * lines]};
+        long iterations = 0;
+        int samples = 0;
+        long start = System.nanoTime();
+        try (LineWriter writer = mapped ? openMapped(rawPath, progressPath) : openPng(outputPath)) {
+            Future<?> written = null;
+            for (int y0 = first, next = 0; y0 < height; y0 += lines, next ^= 1) {
+                int[] band = bands[next];
+                int h = Math.min(lines, height - y0);
+                for (int x0 = 0; x0 < width; x0 += MAX_IMAGE_WIDTH) {
+                    int w = Math.min(MAX_IMAGE_WIDTH, width - x0);
+                    OffscreenImage image = images.computeIfAbsent(((long) w << 32) | h,
+                            key -> new OffscreenImage(w, h));
+                    MandelbrotSetRenderer renderer = createRenderer(image, x0, y0, w, h, bandEngine);
+                    service.render(renderer);
+                    iterations += renderer.getIterationCount();
+                    samples = renderer.getSamples();
+                    IntBuffer pixels = image.getBuffer();
+                    for (int y = 0; y < h; y++) {
+                        pixels.position(y * w);
+                        pixels.get(band, y * width + x0, w);
+                    }
+                }
+                await(written);
+                int y = y0;
+                written = writerThread.submit(() -> {
+                    writer.write(band, y, h);
+                    System.out.printf(Locale.US, "\rWritten %d of %d lines", y + h, height);
+                    return null;
+                });
+            }
+            await(written);
+        } finally {
+            service.shutdown();
+            writerThread.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long pixels = (long) width * (height - first);
+        System.out.println();
+        System.out.printf(Locale.US, "%dx%d pixels, %d samples per pixel, %s engine, %d threads, %.2f s%n",
+                width, height - first, samples, bandEngine.name().toLowerCase(Locale.US), threads, seconds);
+        System.out.printf(Locale.US, "%.2f Mpixels/s, %.1f Miterations/s%n",
+                pixels / seconds / 1e6, iterations / seconds / 1e6);
+        if (png && mapped) {
+            encodePng(rawPath, outputPath, lines);
+            Files.delete(rawPath);
+        }
+        if (mapped) {
+            Files.delete(progressPath);
+        }
+        System.out.println("Written " + output);
+    }
+
+    /**
+     * Waits for a band to be written.
+     * @param written result of writing, null if there is none
+     */
+    private static void await(Future<?> written) throws IOException {
+        if (written == null) {
+            return;
+        }
+        try {
+            written.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing");
+        }
+    }
+
+    /**
+     * Creates a renderer of a part of the output, positioned from the
+     * center of the output with full precision like the view of
+     * {@link Main}.
+     */
+    private MandelbrotSetRenderer createRenderer(OffscreenImage image, int x0, int y0, int w, int h,
+            MandelbrotSetRenderer.Engine bandEngine) {
+        BigDecimal bigScale = new BigDecimal(scale);
+        BigDecimal real = centerR.add(bigScale.multiply(BigDecimal.valueOf(x0 + w / 2d - width / 2d)));
+        BigDecimal img = centerI.add(bigScale.multiply(BigDecimal.valueOf(y0 + h / 2d - height / 2d)));
+        double re = real.doubleValue();
+        double im = img.doubleValue();
+        MandelbrotSetRenderer renderer = new MandelbrotSetRenderer(true, image, w, h,
+                re - scale * w / 2, im - scale * h / 2, re + scale * w / 2, im + scale * h / 2,
+                0, 0, 0, 0, !antialias, bandEngine, formula, real, img, scale);
+        renderer.setPalette(palette, 0);
+        return renderer;
+    }
+
+    /**
+     * Opens PNG output written as a stream, it can't be resumed.
+     */
+    private LineWriter openPng(Path path) throws IOException {
+        PngWriter png = new PngWriter(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16),
+                width, height);
+        return new LineWriter() {
+            @Override
+            public void write(int[] pixels, int y, int count) throws IOException {
+                png.writeLines(pixels, 0, count);
+            }
+
+            @Override
+            public void close() throws IOException {
+                png.close();
+            }
+        };
+    }
+
+    /**
+     * Opens raw output written through memory mapping, every band written
+     * is flushed to the disk and recorded in the progress file.
+     */
+    private LineWriter openMapped(Path path, Path progressPath) throws IOException {
+        MappedImageFile file = new MappedImageFile(path, width, height);
+        return new LineWriter() {
+            @Override
+            public void write(int[] pixels, int y, int count) throws IOException {
+                file.writeLines(pixels, 0, y, count);
+                writeProgress(progressPath, y + count);
+            }
+
+            @Override
+            public void close() throws IOException {
+                file.close();
+            }
+        };
+    }
+
+    /**
+     * Encodes a finished raw image as PNG, band by band.
+     */
+    private void encodePng(Path rawPath, Path path, int lines) throws IOException {
+        int[] band = new int[width * lines];
+        try (MappedImageFile raw = new MappedImageFile(rawPath, width, height);
+                OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16);
+                PngWriter png = new PngWriter(out, width, height)) {
+            for (int y = 0; y < height; y += lines) {
+                int count = Math.min(lines, height - y);
+                raw.readLines(band, 0, y, count);
+                png.writeLines(band, 0, count);
+            }
+        }
+    }
+
+    /**
+     * @return everything pixels of the output depend on, to tell whether a
+     * progress file belongs to the same render
+     */
+    private String describe() {
+        return String.format(Locale.US, "%s,%s %s %dx%d %s %s %s %b %d",
+                centerR, centerI, Double.toString(scale), width, height, formula, engine, palette,
+                antialias, bandHeight);
+    }
+
+    /**
+     * Saves the number of finished lines, replacing the progress file
+     * atomically so a crash leaves either the old or the new one.
+     */
+    private void writeProgress(Path progressPath, int lines) throws IOException {
+        Properties progress = new Properties();
+        progress.setProperty("parameters", describe());
+        progress.setProperty("lines", Integer.toString(lines));
+        Path temp = Paths.get(progressPath + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            progress.store(writer, null);
+        }
+        Files.move(temp, progressPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return number of finished lines saved in the progress file, 0 if
+     * there is no progress file or it belongs to another render
+     */
+    private int readProgress(Path progressPath) throws IOException {
+        if (!Files.exists(progressPath)) {
+            return 0;
+        }
+        Properties progress = new Properties();
+        try (Reader reader = Files.newBufferedReader(progressPath, StandardCharsets.UTF_8)) {
+            progress.load(reader);
+        }
+        if (!describe().equals(progress.getProperty("parameters"))) {
+            System.out.println("Progress file " + progressPath + " is of other parameters, starting over");
+            return 0;
+        }
+        try {
+            return Math.min(height, Integer.parseInt(progress.getProperty("lines", "0")));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
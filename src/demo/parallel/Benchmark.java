@@ -0,0 +1,325 @@
+package demo.parallel;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.stream.IntStream;
+import javax.imageio.ImageIO;
+
+/**
+ * Command line benchmark of the calculation kernels on the preset locations
+ * of the demo (see buttons 0-3 in {@link Main}). Run with
+ * <pre>
+ * java demo.parallel.Benchmark [interior|precision|bulk|schedule|png|all] [width height]
+ * </pre>
+ * Each measurement is repeated several times after a warm-up and the best
+ * time is reported. The png suite encodes a 16K frame (15360x8640) by
+ * default and is not part of all, it needs about 2 GB of heap.
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ */
+public class Benchmark {
+
+    /**
+     * Preset locations, same as in Main.flyToPosition(int):
+     * minR, minI, maxR, maxI
+     */
+    static final double[][] PRESETS = {
+        {-2.4451320039285465, -1.3061943784663503, 0.9425352568739851, 1.2879652356695286},
+        {-1.4831212866723549, -0.026946715467747517, -1.4831211655199326, -0.026946649881416845},
+        {-0.6512456310112382, -0.4797642161720457, -0.651219785161165, -0.4797444243048724},
+        {0.38835929484388515, -0.23577130937499838, 0.39102329484388804, -0.2337313093749984},
+    };
+
+    private static final int WARMUP = 2;
+    private static final int RUNS = 5;
+
+    private static final int PNG_WIDTH = 15360;
+    private static final int PNG_HEIGHT = 8640;
+
+    /**
+     * Kernel to measure, takes a complex number and returns iteration count
+     */
+    private interface PixelKernel {
+        int calc(double re, double im);
+    }
+
+    public static void main(String[] args) {
+        String suite = args.length > 0 ? args[0] : "all";
+        int width = 800;
+        int height = 600;
+        if (args.length >= 3) {
+            width = Integer.parseInt(args[1]);
+            height = Integer.parseInt(args[2]);
+        }
+        switch (suite) {
+            case "interior":
+                benchmarkInteriorShortcuts(width, height);
+                break;
+            case "precision":
+                benchmarkPrecision(width, height);
+                break;
+            case "bulk":
+                benchmarkBulk(width, height);
+                break;
+            case "schedule":
+                benchmarkSchedule(width, height);
+                break;
+            case "png":
+                benchmarkPng(args.length >= 3 ? width : PNG_WIDTH, args.length >= 3 ? height : PNG_HEIGHT);
+                break;
+            default:
+                benchmarkInteriorShortcuts(width, height);
+                benchmarkPrecision(width, height);
+                benchmarkBulk(width, height);
+                benchmarkSchedule(width, height);
+                break;
+        }
+    }
+
+    /**
+     * Compares plain escape-time iterations with the kernel which recognizes
+     * interior points early.
+     */
+    private static void benchmarkInteriorShortcuts(int width, int height) {
+        System.out.println("Interior shortcuts, " + width + "x" + height + ", one sample per pixel");
+        System.out.println("location   plain ms  shortcut ms  speedup");
+        for (int loc = 0; loc < PRESETS.length; loc++) {
+            double[] p = PRESETS[loc];
+            long plain = measure(() -> render(p, width, height, MandelbrotSetRenderer::calcWithoutShortcuts));
+            long shortcut = measure(() -> render(p, width, height, MandelbrotSetRenderer::calc));
+            System.out.println(String.format(Locale.US, "%8d %10.1f %12.1f %8.2fx",
+                    loc, plain / 1e6, shortcut / 1e6, (double) plain / shortcut));
+        }
+    }
+
+    /**
+     * Compares the double kernel with the double-double one on the same
+     * points. Both recognize interior points only by orbits coming back to
+     * exactly the same point, the double kernel is measured without the
+     * analytic interior check the double-double one doesn't have.
+     */
+    private static void benchmarkPrecision(int width, int height) {
+        System.out.println("Double vs. double-double, " + width + "x" + height + ", one sample per pixel");
+        System.out.println("location  double ms  double-double ms  cost");
+        for (int loc = 0; loc < PRESETS.length; loc++) {
+            double[] p = PRESETS[loc];
+            long plain = measure(() -> render(p, width, height, MandelbrotSetRenderer::calcWithPeriodicity));
+            long dd = measure(() -> render(p, width, height,
+                    (re, im) -> MandelbrotSetRenderer.calcDoubleDouble(re, 0, im, 0)));
+            System.out.println(String.format(Locale.US, "%8d %10.1f %17.1f %5.2fx",
+                    loc, plain / 1e6, dd / 1e6, (double) dd / plain));
+        }
+    }
+
+    /**
+     * Compares the pixel by pixel kernel with the one iterating whole lines
+     * in a {@link ComplexArray}.
+     */
+    private static void benchmarkBulk(int width, int height) {
+        System.out.println("Pixel vs. line at once, " + width + "x" + height + ", one sample per pixel");
+        System.out.println("location   pixel ms   line ms  speedup");
+        for (int loc = 0; loc < PRESETS.length; loc++) {
+            double[] p = PRESETS[loc];
+            long pixel = measure(() -> render(p, width, height, MandelbrotSetRenderer::calc));
+            long line = measure(() -> renderLines(p, width, height));
+            System.out.println(String.format(Locale.US, "%8d %10.1f %9.1f %8.2fx",
+                    loc, pixel / 1e6, line / 1e6, (double) pixel / line));
+        }
+    }
+
+    /**
+     * Compares parallel rendering scheduled by lines with the one scheduled
+     * by square tiles of several sizes, see {@link TileScheduler}.
+     */
+    private static void benchmarkSchedule(int width, int height) {
+        int[] tileSizes = {0, 16, 32, 64};
+        System.out.println("Lines vs. tiles, " + width + "x" + height + ", one sample per pixel, "
+                + ForkJoinPool.getCommonPoolParallelism() + " workers");
+        System.out.println("location   lines ms  16px ms  32px ms  64px ms  best speedup");
+        for (int loc = 0; loc < PRESETS.length; loc++) {
+            double[] p = PRESETS[loc];
+            long[] times = new long[tileSizes.length];
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < tileSizes.length; i++) {
+                int tileSize = tileSizes[i];
+                times[i] = measure(() -> renderTiles(p, width, height, tileSize));
+                if (i > 0) {
+                    best = Math.min(best, times[i]);
+                }
+            }
+            System.out.println(String.format(Locale.US, "%8d %10.1f %8.1f %8.1f %8.1f %12.2fx",
+                    loc, times[0] / 1e6, times[1] / 1e6, times[2] / 1e6, times[3] / 1e6,
+                    (double) times[0] / best));
+        }
+    }
+
+    /**
+     * Compares {@link ImageIO#write} with {@link PngWriter} deflating
+     * segments in parallel, on the first preset location colored with the
+     * classic palette. Both encode the same pixels into a stream which
+     * only counts bytes.
+     */
+    private static void benchmarkPng(int width, int height) {
+        System.out.println("ImageIO vs. PngWriter, " + width + "x" + height + ", "
+                + ForkJoinPool.getCommonPoolParallelism() + " workers");
+        double[] p = PRESETS[0];
+        int[] pixels = new int[width * height];
+        IntStream.range(0, height).parallel().forEach(y -> {
+            double im = (p[1] * (height - y) + y * p[3]) / height;
+            for (int x = 0; x < width; x++) {
+                double re = (p[0] * (width - x) + x * p[2]) / width;
+                pixels[y * width + x] = Palette.CLASSIC.getColor(MandelbrotSetRenderer.calc(re, im),
+                        MandelbrotSetRenderer.CAL_MAX_COUNT, 0);
+            }
+        });
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        ImageIO.setUseCache(false);
+        long[] sizes = new long[2];
+        long imageIO = measure(() -> {
+            ByteCounter out = new ByteCounter();
+            try {
+                ImageIO.write(image, "png", out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return sizes[0] = out.count;
+        }, 1, 3);
+        long pngWriter = measure(() -> {
+            ByteCounter out = new ByteCounter();
+            try (PngWriter writer = new PngWriter(out, width, height)) {
+                for (int y = 0; y < height; y += 256) {
+                    writer.writeLines(pixels, y * width, Math.min(256, height - y));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return sizes[1] = out.count;
+        }, 1, 3);
+        System.out.println("encoder       ms      MB  speedup");
+        System.out.println(String.format(Locale.US, "ImageIO   %8.1f %7.1f %8.2fx",
+                imageIO / 1e6, sizes[0] / 1e6, 1d));
+        System.out.println(String.format(Locale.US, "PngWriter %8.1f %7.1f %8.2fx",
+                pngWriter / 1e6, sizes[1] / 1e6, (double) imageIO / pngWriter));
+    }
+
+    /**
+     * Stream which discards bytes written to it and counts them
+     */
+    private static class ByteCounter extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    /**
+     * Calculates all pixels of a location in parallel with a
+     * {@link TileScheduler}.
+     * @return sum of iteration counts, so that the work is not optimized away
+     */
+    private static long renderTiles(double[] p, int width, int height, int tileSize) {
+        AtomicLong sum = new AtomicLong();
+        new TileScheduler(width, height, tileSize).run(true, (x0, y0, x1, y1) -> {
+            long tileSum = 0;
+            for (int y = y0; y < y1; y++) {
+                double im = (p[1] * (height - y) + y * p[3]) / height;
+                for (int x = x0; x < x1; x++) {
+                    double re = (p[0] * (width - x) + x * p[2]) / width;
+                    tileSum += MandelbrotSetRenderer.calc(re, im);
+                }
+            }
+            sum.addAndGet(tileSum);
+        });
+        return sum.get();
+    }
+
+    /**
+     * Calculates all lines of a location sequentially with
+     * {@link MandelbrotSetRenderer#calcBulk(double[], double, int[], int)}.
+     * @return sum of iteration counts, so that the work is not optimized away
+     */
+    private static long renderLines(double[] p, int width, int height) {
+        long sum = 0;
+        double[] re = new double[width];
+        int[] counts = new int[width];
+        for (int y = 0; y < height; y++) {
+            double im = (p[1] * (height - y) + y * p[3]) / height;
+            for (int x = 0; x < width; x++) {
+                re[x] = (p[0] * (width - x) + x * p[2]) / width;
+            }
+            MandelbrotSetRenderer.calcBulk(re, im, counts, width);
+            for (int x = 0; x < width; x++) {
+                sum += counts[x];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Calculates all pixels of a location sequentially.
+     * @return sum of iteration counts, so that the work is not optimized away
+     */
+    private static long render(double[] p, int width, int height, PixelKernel kernel) {
+        long sum = 0;
+        for (int y = 0; y < height; y++) {
+            double im = (p[1] * (height - y) + y * p[3]) / height;
+            for (int x = 0; x < width; x++) {
+                double re = (p[0] * (width - x) + x * p[2]) / width;
+                sum += kernel.calc(re, im);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Runs a task several times after warm-up.
+     * @param task task to measure
+     * @return best time in nanoseconds
+     */
+    static long measure(LongSupplier task) {
+        return measure(task, WARMUP, RUNS);
+    }
+
+    /**
+     * Runs a task several times after warm-up.
+     * @param task task to measure
+     * @param warmup number of runs not measured
+     * @param runs number of measured runs
+     * @return best time in nanoseconds
+     */
+    static long measure(LongSupplier task, int warmup, int runs) {
+        long blackhole = 0;
+        for (int i = 0; i < warmup; i++) {
+            blackhole += task.getAsLong();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            blackhole += task.getAsLong();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (blackhole == 42) {
+            System.out.print("");
+        }
+        return best;
+    }
+}
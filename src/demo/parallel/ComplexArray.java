@@ -0,0 +1,235 @@
+package demo.parallel;
+
+/**
+ * An array of complex numbers kept as two parallel arrays of real and
+ * imaginary parts. Operations mirror the ones of {@link Complex}, but apply
+ * to the first {@link #size()} elements at once and modify this object, so
+ * a whole line of samples can be iterated without allocating an object per
+ * sample. Simple loops over primitive arrays are also easy for the JIT to
+ * vectorize.
+ * <p>
+ * Each operation does the same calculations in the same order as its
+ * {@link Complex} counterpart, so results are identical.
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ */
+public class ComplexArray {
+
+    private final double[] re;   // the real parts
+    private final double[] im;   // the imaginary parts
+    private int size;
+
+    /**
+     * create a new array of zeros
+     *
+     * @param size number of elements
+     */
+    public ComplexArray(int size) {
+        re = new double[size];
+        im = new double[size];
+        this.size = size;
+    }
+
+    /**
+     * @return number of elements operations are applied to
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Shrinks or restores the number of elements operations are applied to,
+     * values of elements are kept.
+     * @param size new number of elements, not greater than the capacity
+     */
+    public void setSize(int size) {
+        if (size < 0 || size > re.length) {
+            throw new IndexOutOfBoundsException("Size " + size + " out of capacity " + re.length);
+        }
+        this.size = size;
+    }
+
+    /**
+     * Get real part of an element
+     * @param index index of the element
+     * @return real part
+     */
+    public double getRe(int index) {
+        return re[index];
+    }
+
+    /**
+     * Get imaginary part of an element
+     * @param index index of the element
+     * @return imaginary part
+     */
+    public double getIm(int index) {
+        return im[index];
+    }
+
+    /**
+     * Set value of an element
+     * @param index index of the element
+     * @param real real part
+     * @param imag imaginary part
+     */
+    public void set(int index, double real, double imag) {
+        re[index] = real;
+        im[index] = imag;
+    }
+
+    /**
+     * Copies value of one element to another, used to compact the array.
+     * @param from index of the element to copy
+     * @param to index of the element to overwrite
+     */
+    public void move(int from, int to) {
+        re[to] = re[from];
+        im[to] = im[from];
+    }
+
+    /**
+     * Add operation.
+     * @param b summands
+     * @return this object whose values are (this + b)
+     */
+    public ComplexArray plus(ComplexArray b) {
+        for (int k = 0; k < size; k++) {
+            re[k] += b.re[k];
+            im[k] += b.im[k];
+        }
+        return this;
+    }
+
+    /**
+     * Add operation.
+     * @param b summand added to every element
+     * @return this object whose values are (this + b)
+     */
+    public ComplexArray plus(Complex b) {
+        double bRe = b.getRe(), bIm = b.getIm();
+        for (int k = 0; k < size; k++) {
+            re[k] += bRe;
+            im[k] += bIm;
+        }
+        return this;
+    }
+
+    /**
+     * Multiply operation.
+     * @param b multipliers
+     * @return this object whose values are this * b
+     */
+    public ComplexArray times(ComplexArray b) {
+        for (int k = 0; k < size; k++) {
+            double real = re[k] * b.re[k] - im[k] * b.im[k];
+            double imag = re[k] * b.im[k] + im[k] * b.re[k];
+            re[k] = real;
+            im[k] = imag;
+        }
+        return this;
+    }
+
+    /**
+     * Square operation (z²).
+     * @return this object whose values are this²
+     */
+    public ComplexArray square() {
+        for (int k = 0; k < size; k++) {
+            double real = re[k] * re[k] - im[k] * im[k];
+            double imag = 2 * re[k] * im[k];
+            re[k] = real;
+            im[k] = imag;
+        }
+        return this;
+    }
+
+    /**
+     * Exponential operation (e^z).
+     * @return this object whose values are e^z
+     */
+    public ComplexArray exp() {
+        for (int k = 0; k < size; k++) {
+            double magnitude = Math.exp(re[k]);
+            double real = magnitude * Math.cos(im[k]);
+            double imag = magnitude * Math.sin(im[k]);
+            re[k] = real;
+            im[k] = imag;
+        }
+        return this;
+    }
+
+    /**
+     * Sine operation (sin(z)).
+     * @return this object whose values are sin(z)
+     */
+    public ComplexArray sin() {
+        for (int k = 0; k < size; k++) {
+            double real = Math.sin(re[k]) * Math.cosh(im[k]);
+            double imag = Math.cos(re[k]) * Math.sinh(im[k]);
+            re[k] = real;
+            im[k] = imag;
+        }
+        return this;
+    }
+
+    /**
+     * Reciprocal operation (1/z). Nothing is modified when an element is
+     * zero.
+     * @return this object whose values are 1/this
+     * @throws ArithmeticException if any element is zero
+     */
+    public ComplexArray reciprocal() {
+        for (int k = 0; k < size; k++) {
+            if (Math.abs(re[k] * re[k] + im[k] * im[k]) < 1e-15) {
+                throw new ArithmeticException("Division by zero at index " + k);
+            }
+        }
+        for (int k = 0; k < size; k++) {
+            double denominator = re[k] * re[k] + im[k] * im[k];
+            double real = re[k] / denominator;
+            double imag = -im[k] / denominator;
+            re[k] = real;
+            im[k] = imag;
+        }
+        return this;
+    }
+
+    /**
+     * Squares of lengths of the elements.
+     * @param result array to store squares of lengths into, at least
+     * {@link #size()} long
+     * @return the result array
+     */
+    public double[] lengthSQ(double[] result) {
+        for (int k = 0; k < size; k++) {
+            result[k] = re[k] * re[k] + im[k] * im[k];
+        }
+        return result;
+    }
+
+    /**
+     * Классическое уравнение Мандельброта для всех элементов: z = z² + c
+     * @param c complex constants
+     * @return this object whose values are z² + c
+     */
+    public ComplexArray mandelbrot(ComplexArray c) {
+        return this.square().plus(c);
+    }
+
+    /**
+     * Создает копию массива
+     * @return копия объекта с тем же числом элементов
+     */
+    public ComplexArray copy() {
+        ComplexArray copy = new ComplexArray(re.length);
+        System.arraycopy(re, 0, copy.re, 0, size);
+        System.arraycopy(im, 0, copy.im, 0, size);
+        copy.size = size;
+        return copy;
+    }
+}
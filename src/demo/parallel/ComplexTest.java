@@ -255,4 +255,87 @@ public class ComplexTest {
         assertEquals("1.0 + 2.0i", b.toString());
         assertEquals("0.0 + 0.0i", zero.toString());
     }
-}
\ No newline at end of file
+
+    // Пакетные операции ComplexArray
+    private static ComplexArray arrayOf(Complex... values) {
+        ComplexArray array = new ComplexArray(values.length);
+        for (int k = 0; k < values.length; k++) {
+            array.set(k, values[k].getRe(), values[k].getIm());
+        }
+        return array;
+    }
+
+    private static void assertSameAs(Complex expected, ComplexArray array, int index) {
+        assertEquals(expected.getRe(), array.getRe(index), 0);
+        assertEquals(expected.getIm(), array.getIm(index), 0);
+    }
+
+    @Test
+    public void testBulkPlusAndTimes() {
+        ComplexArray sum = arrayOf(a, b, zero).plus(arrayOf(b, i, one));
+        assertSameAs(a.copy().plus(b), sum, 0);
+        assertSameAs(b.copy().plus(i), sum, 1);
+        assertSameAs(zero.copy().plus(one), sum, 2);
+
+        ComplexArray product = arrayOf(a, b, i).times(arrayOf(b, a, i));
+        assertSameAs(a.copy().times(b), product, 0);
+        assertSameAs(b.copy().times(a), product, 1);
+        assertSameAs(i.copy().times(i), product, 2);
+
+        ComplexArray shifted = arrayOf(a, b).plus(i);
+        assertSameAs(a.copy().plus(i), shifted, 0);
+        assertSameAs(b.copy().plus(i), shifted, 1);
+    }
+
+    @Test
+    public void testBulkFunctions() {
+        Complex[] values = {a, b, i, new Complex(-0.7, 0.3)};
+        ComplexArray square = arrayOf(values).square();
+        ComplexArray exp = arrayOf(values).exp();
+        ComplexArray sin = arrayOf(values).sin();
+        ComplexArray reciprocal = arrayOf(values).reciprocal();
+        double[] lengthSQ = arrayOf(values).lengthSQ(new double[values.length]);
+        for (int k = 0; k < values.length; k++) {
+            assertSameAs(values[k].copy().square(), square, k);
+            assertSameAs(values[k].copy().exp(), exp, k);
+            assertSameAs(values[k].copy().sin(), sin, k);
+            assertSameAs(values[k].copy().reciprocal(), reciprocal, k);
+            assertEquals(values[k].lengthSQ(), lengthSQ[k], 0);
+        }
+    }
+
+    @Test
+    public void testBulkMandelbrot() {
+        ComplexArray c = arrayOf(a, b);
+        ComplexArray result = arrayOf(a, b).mandelbrot(c);
+        assertSameAs(a.copy().mandelbrot(a), result, 0);
+        assertSameAs(b.copy().mandelbrot(b), result, 1);
+    }
+
+    @Test
+    public void testBulkReciprocalOfZero() {
+        ComplexArray array = arrayOf(a, zero);
+        assertThrows(ArithmeticException.class, () -> array.reciprocal());
+        // Ничего не изменилось
+        assertSameAs(a, array, 0);
+    }
+
+    // Операции применяются только к первым size() элементам
+    @Test
+    public void testBulkSize() {
+        ComplexArray array = arrayOf(a, b, i);
+        array.setSize(2);
+        array.square();
+        assertSameAs(a.copy().square(), array, 0);
+        assertSameAs(b.copy().square(), array, 1);
+        assertSameAs(i, array, 2);
+        array.move(2, 0);
+        assertSameAs(i, array, 0);
+        assertThrows(IndexOutOfBoundsException.class, () -> array.setSize(4));
+
+        ComplexArray copy = array.copy();
+        assertEquals(2, copy.size());
+        array.plus(one);
+        assertSameAs(i, copy, 0);
+    }
+}
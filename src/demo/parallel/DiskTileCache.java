@@ -0,0 +1,540 @@
+package demo.parallel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Persistent cache of tiles of iteration counts, see {@link TileCache}, so
+ * that areas visited in previous sessions are not calculated again.
+ * <p>
+ * Tiles are stored compressed in a ring of segment files of a fixed size,
+ * each mapped to memory with {@link FileChannel#map}. Records are appended
+ * to the newest segment, when it is full the oldest one is reused, which
+ * bounds the size of the cache on disk. An index of tiles is kept in
+ * memory and rebuilt by scanning segments when the cache is opened.
+ * <p>
+ * Writes are asynchronous and never wait for the disk. A record carries the
+ * generation of its segment and a checksum, so after a crash torn records
+ * and stale records of the previous use of a segment are ignored. A segment
+ * also stores a fingerprint of everything iteration counts depend on
+ * besides the tile key, such as escape radii of formulas; segments with
+ * another fingerprint are dropped, so changes of these parameters
+ * invalidate the cache.
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ */
+public final class DiskTileCache implements AutoCloseable {
+
+    /**
+     * Size of a segment file in bytes
+     */
+    static final int DEFAULT_SEGMENT_SIZE = 16 << 20;
+
+    /**
+     * Version of the file format, to be increased whenever the format or
+     * the way iteration counts are calculated changes
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int MAGIC = 0x4D544331;
+
+    /**
+     * Segment header: magic, 0 if the segment is not used, version,
+     * fingerprint and generation
+     */
+    private static final int SEGMENT_HEADER = 24;
+
+    /**
+     * Record header: length of compressed counts, checksum of the rest of
+     * the record, generation of the segment, key and number of counts
+     */
+    private static final int RECORD_HEADER = 56;
+
+    /**
+     * Max number of tiles waiting to be written, further tiles are dropped
+     */
+    private static final int WRITE_QUEUE = 1024;
+
+    private static final long FINGERPRINT = fingerprint();
+
+    private final Path directory;
+    private final int segmentSize;
+    private final MappedByteBuffer[] segments;
+    private final long[] generations;
+
+    /**
+     * Location of the latest record of every tile, segment number in the
+     * upper half and offset in the lower one
+     */
+    private final Map<TileCache.Key, Long> index = new HashMap<>();
+
+    /**
+     * Segment records are appended to, -1 if none yet
+     */
+    private int active = -1;
+    private int position;
+
+    /**
+     * Latest generation of a segment, including dropped ones, so records
+     * left from earlier uses of a segment never match its generation
+     */
+    private long generation;
+
+    private final ThreadPoolExecutor writer;
+    private long hits, misses, writes, dropped;
+
+    /**
+     * Opens a cache in a given directory, creating it if needed.
+     * @param directory directory of segment files
+     * @param budget max size of segment files in bytes, at least two
+     * segments
+     * @throws IOException if the directory or existing segments can't be
+     * opened
+     */
+    public DiskTileCache(Path directory, long budget) throws IOException {
+        this(directory, budget, DEFAULT_SEGMENT_SIZE);
+    }
+
+    DiskTileCache(Path directory, long budget, int segmentSize) throws IOException {
+        if (segmentSize <= SEGMENT_HEADER + RECORD_HEADER) {
+            throw new IllegalArgumentException("Segment size is too small: " + segmentSize);
+        }
+        if (budget < 2L * segmentSize) {
+            throw new IllegalArgumentException("Cache budget " + budget + " is less than two segments of "
+                    + segmentSize + " bytes");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        int count = (int) Math.min(Integer.MAX_VALUE, budget / segmentSize);
+        segments = new MappedByteBuffer[count];
+        generations = new long[count];
+        Files.createDirectories(directory);
+        deleteSegmentsFrom(count);
+        for (int i = 0; i < count; i++) {
+            if (Files.exists(segmentPath(i))) {
+                segments[i] = map(i);
+                generation = Math.max(generation, segments[i].getLong(16));
+                if (segments[i].getInt(0) == MAGIC && segments[i].getInt(4) == FORMAT_VERSION
+                        && segments[i].getLong(8) == FINGERPRINT) {
+                    generations[i] = segments[i].getLong(16);
+                }
+            }
+        }
+        // Later records of a tile replace earlier ones
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(generations[a], generations[b]));
+        for (int segment : order) {
+            if (generations[segment] > 0) {
+                active = segment;
+                position = scan(segment);
+            }
+        }
+        writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(WRITE_QUEUE), r -> {
+                    Thread thread = new Thread(r, "MandelbrotSet tile writer");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Finds a tile.
+     * @param key tile
+     * @return iteration counts of the tile, null if it is not stored
+     */
+    public int[] get(TileCache.Key key) {
+        byte[] data;
+        int count;
+        synchronized (this) {
+            Long location = index.get(key);
+            if (location == null) {
+                misses++;
+                return null;
+            }
+            ByteBuffer record = segments[(int) (location >>> 32)].duplicate();
+            record.position((int) (long) location);
+            data = new byte[RECORD_HEADER + record.getInt(record.position())];
+            record.get(data);
+            count = ByteBuffer.wrap(data).getInt(RECORD_HEADER - 4);
+        }
+        int[] counts = null;
+        if (checksum(data) == ByteBuffer.wrap(data).getInt(4)) {
+            try {
+                counts = decompress(data, RECORD_HEADER, data.length - RECORD_HEADER, count);
+            } catch (DataFormatException e) {
+                counts = null;
+            }
+        }
+        synchronized (this) {
+            if (counts == null) {
+                index.remove(key);
+                misses++;
+            } else {
+                hits++;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Stores a tile in the background, replacing the stored one if any. The
+     * tile is dropped when too many tiles are waiting to be written.
+     * @param key tile
+     * @param counts iteration counts of the tile, not to be changed after
+     * the call
+     */
+    public void put(TileCache.Key key, int[] counts) {
+        try {
+            writer.execute(() -> write(key, counts));
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                dropped++;
+            }
+        }
+    }
+
+    /**
+     * Waits until tiles stored so far are written.
+     */
+    public void flush() {
+        try {
+            writer.submit(() -> { }).get();
+        } catch (RejectedExecutionException | ExecutionException e) {
+            // Closed, nothing to wait for
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drops all stored tiles.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i] != null) {
+                segments[i].putInt(0, 0);
+                segments[i].force();
+            }
+            generations[i] = 0;
+        }
+        index.clear();
+        active = -1;
+    }
+
+    /**
+     * Writes pending tiles and flushes segments to the disk. Tiles stored
+     * afterwards are dropped.
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            for (MappedByteBuffer segment : segments) {
+                if (segment != null) {
+                    segment.force();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of tiles found
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of tiles not found
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of tiles written
+     */
+    public synchronized long getWrites() {
+        return writes;
+    }
+
+    /**
+     * @return number of tiles not written because the write queue was full
+     * or writing failed
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return number of stored tiles
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        int used = 0;
+        for (long generation : generations) {
+            used += generation > 0 ? 1 : 0;
+        }
+        return String.format(Locale.US, "Disk tile cache: %d tiles, %d of %d segments of %.1f MB, "
+                + "%d hits, %d misses, %d writes, %d dropped",
+                index.size(), used, segments.length, segmentSize / 1048576d, hits, misses, writes, dropped);
+    }
+
+    /**
+     * Appends a record of a tile to the active segment, starting the next
+     * segment if it doesn't fit. Called by the writer thread.
+     */
+    private void write(TileCache.Key key, int[] counts) {
+        byte[] data = compress(counts);
+        int size = RECORD_HEADER + data.length;
+        synchronized (this) {
+            if (size > segmentSize - SEGMENT_HEADER - 4) {
+                dropped++;
+                return;
+            }
+            try {
+                if (active < 0 || position + size > segmentSize - 4) {
+                    startSegment();
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to write tile cache segment: " + e.getMessage());
+                dropped++;
+                return;
+            }
+            ByteBuffer record = ByteBuffer.allocate(size);
+            record.putInt(data.length).putInt(0).putLong(generations[active]);
+            record.putDouble(key.getScale()).putLong(key.getTileX()).putLong(key.getTileY());
+            record.putInt(key.getFormula().ordinal()).putInt(key.getMaxIterations());
+            record.putInt(key.getSamples()).putInt(counts.length).put(data);
+            byte[] bytes = record.array();
+            ByteBuffer.wrap(bytes).putInt(4, checksum(bytes));
+            // The length goes last, so a record is complete once it is set
+            ByteBuffer segment = segments[active].duplicate();
+            segment.position(position + 4);
+            segment.put(bytes, 4, size - 4);
+            segment.putInt(position + size, 0);
+            segments[active].putInt(position, data.length);
+            index.put(key, ((long) active << 32) | position);
+            position += size;
+            writes++;
+        }
+    }
+
+    /**
+     * Makes the oldest segment the active one, dropping its tiles.
+     */
+    private void startSegment() throws IOException {
+        if (active >= 0) {
+            segments[active].force();
+        }
+        int next = 0;
+        for (int i = 0; i < segments.length; i++) {
+            if (generations[i] < generations[next]) {
+                next = i;
+            }
+        }
+        int segment = next;
+        index.values().removeIf(location -> (location >>> 32) == segment);
+        if (segments[segment] == null) {
+            segments[segment] = map(segment);
+        }
+        MappedByteBuffer buffer = segments[segment];
+        generation++;
+        buffer.putInt(0, 0);
+        buffer.putInt(SEGMENT_HEADER, 0);
+        buffer.putInt(4, FORMAT_VERSION).putLong(8, FINGERPRINT).putLong(16, generation);
+        buffer.putInt(0, MAGIC);
+        buffer.force();
+        generations[segment] = generation;
+        active = segment;
+        position = SEGMENT_HEADER;
+    }
+
+    /**
+     * Adds valid records of a segment to the index.
+     * @return offset after the last valid record
+     */
+    private int scan(int segment) {
+        ByteBuffer buffer = segments[segment];
+        FractalFormula[] formulas = FractalFormula.values();
+        int offset = SEGMENT_HEADER;
+        while (offset <= segmentSize - RECORD_HEADER) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || length > segmentSize - RECORD_HEADER - offset
+                    || buffer.getLong(offset + 8) != generations[segment]) {
+                break;
+            }
+            byte[] record = new byte[RECORD_HEADER + length];
+            buffer.duplicate().position(offset).get(record);
+            int formula = buffer.getInt(offset + 40);
+            if (checksum(record) != buffer.getInt(offset + 4) || formula < 0 || formula >= formulas.length) {
+                break;
+            }
+            TileCache.Key key = new TileCache.Key(buffer.getDouble(offset + 16),
+                    buffer.getLong(offset + 24), buffer.getLong(offset + 32), formulas[formula],
+                    buffer.getInt(offset + 44), buffer.getInt(offset + 48));
+            index.put(key, ((long) segment << 32) | offset);
+            offset += record.length;
+        }
+        return offset;
+    }
+
+    private MappedByteBuffer map(int segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    /**
+     * Deletes segment files left from a larger budget, so that the cache
+     * stays within the current one.
+     * @param count number of segments kept
+     */
+    private void deleteSegmentsFrom(int count) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "tiles-*.seg")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String number = name.substring("tiles-".length(), name.length() - ".seg".length());
+                if (number.matches("\\d{1,9}") && Integer.parseInt(number) >= count) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format(Locale.US, "tiles-%03d.seg", segment));
+    }
+
+    /**
+     * @return checksum of a record past its length and checksum fields
+     */
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 8, record.length - 8);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Compresses iteration counts. Neighbouring counts are close, so they
+     * are stored as variable length differences and then deflated.
+     */
+    static byte[] compress(int[] counts) {
+        byte[] bytes = new byte[counts.length * 5];
+        int length = 0;
+        int previous = 0;
+        for (int count : counts) {
+            int delta = count - previous;
+            previous = count;
+            int zigzag = (delta << 1) ^ (delta >> 31);
+            while ((zigzag & ~0x7F) != 0) {
+                bytes[length++] = (byte) (zigzag & 0x7F | 0x80);
+                zigzag >>>= 7;
+            }
+            bytes[length++] = (byte) zigzag;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(bytes, 0, length);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length / 4 + 16);
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /**
+     * Restores iteration counts compressed by {@link #compress(int[])}.
+     * @throws DataFormatException if the data is corrupted
+     */
+    static int[] decompress(byte[] data, int offset, int length, int count) throws DataFormatException {
+        byte[] bytes = new byte[count * 5];
+        Inflater inflater = new Inflater();
+        int size;
+        try {
+            inflater.setInput(data, offset, length);
+            size = inflater.inflate(bytes);
+            if (!inflater.finished()) {
+                throw new DataFormatException("Truncated tile");
+            }
+        } finally {
+            inflater.end();
+        }
+        int[] counts = new int[count];
+        int previous = 0;
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            int zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (pos >= size || shift > 28) {
+                    throw new DataFormatException("Truncated tile");
+                }
+                b = bytes[pos++];
+                zigzag |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            counts[i] = previous;
+        }
+        return counts;
+    }
+
+    /**
+     * @return hash of the parameters iteration counts depend on which are
+     * not part of the tile key
+     */
+    private static long fingerprint() {
+        StringBuilder parameters = new StringBuilder("version " + FORMAT_VERSION);
+        for (FractalFormula formula : FractalFormula.values()) {
+            parameters.append(';').append(formula.name()).append(',').append(formula.escapeRadiusSQ)
+                    .append(',').append(formula.maxIterations).append(',').append(formula.startsAtC);
+        }
+        long hash = 1125899906842597L;
+        for (int i = 0; i < parameters.length(); i++) {
+            hash = 31 * hash + parameters.charAt(i);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,168 @@
+package demo.parallel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DiskTileCacheTest {
+
+    private static final int SEGMENT = 64 << 10;
+
+    @TempDir
+    Path directory;
+
+    private static TileCache.Key key(long x) {
+        return new TileCache.Key(0.01, x, -x, FractalFormula.MANDELBROT, 256, 9);
+    }
+
+    private static int[] tile(long seed) {
+        Random random = new Random(seed);
+        int[] counts = new int[TileCache.TILE_SIZE * TileCache.TILE_SIZE * 9];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = i % 7 == 0 ? 0 : 100 + random.nextInt(4);
+        }
+        return counts;
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        int[] counts = {0, 1, 256, 255, Integer.MAX_VALUE, 0, 3, 3, 3};
+        byte[] data = DiskTileCache.compress(counts);
+        assertArrayEquals(counts, DiskTileCache.decompress(data, 0, data.length, counts.length));
+        int[] flat = new int[64 * 64];
+        java.util.Arrays.fill(flat, 256);
+        assertTrue(DiskTileCache.compress(flat).length < 100);
+    }
+
+    // Плитки переживают закрытие и повторное открытие кэша
+    @Test
+    public void testReopen() throws IOException {
+        try (DiskTileCache cache = new DiskTileCache(directory, 4 * SEGMENT, SEGMENT)) {
+            cache.put(key(1), tile(1));
+            cache.put(key(2), tile(2));
+            cache.put(key(1), tile(3));
+            cache.flush();
+            assertArrayEquals(tile(3), cache.get(key(1)));
+            assertNull(cache.get(key(4)));
+            assertEquals(3, cache.getWrites());
+        }
+        try (DiskTileCache cache = new DiskTileCache(directory, 4 * SEGMENT, SEGMENT)) {
+            assertEquals(2, cache.size());
+            assertArrayEquals(tile(3), cache.get(key(1)));
+            assertArrayEquals(tile(2), cache.get(key(2)));
+            assertEquals(2, cache.getHits());
+        }
+    }
+
+    // Старые сегменты переиспользуются, занятое место ограничено бюджетом
+    @Test
+    public void testEviction() throws IOException {
+        try (DiskTileCache cache = new DiskTileCache(directory, 3 * SEGMENT, SEGMENT)) {
+            for (int i = 0; i < 100; i++) {
+                cache.put(key(i), tile(i));
+            }
+            cache.flush();
+            assertTrue(cache.size() < 100);
+            assertNull(cache.get(key(0)));
+            assertArrayEquals(tile(99), cache.get(key(99)));
+        }
+        assertEquals(3, directory.toFile().list().length);
+        try (DiskTileCache cache = new DiskTileCache(directory, 3 * SEGMENT, SEGMENT)) {
+            assertArrayEquals(tile(99), cache.get(key(99)));
+        }
+    }
+
+    // Бюджет меньше двух сегментов не принимается
+    @Test
+    public void testSmallBudget() {
+        assertThrows(IllegalArgumentException.class, () -> new DiskTileCache(directory, 2 * SEGMENT - 1, SEGMENT));
+        assertThrows(IllegalArgumentException.class, () -> new DiskTileCache(directory, 0, SEGMENT));
+    }
+
+    // При уменьшении бюджета лишние сегменты удаляются
+    @Test
+    public void testShrinkBudget() throws IOException {
+        try (DiskTileCache cache = new DiskTileCache(directory, 5 * SEGMENT, SEGMENT)) {
+            for (int i = 0; i < 100; i++) {
+                cache.put(key(i), tile(i));
+            }
+            cache.flush();
+        }
+        assertEquals(5, directory.toFile().list().length);
+        try (DiskTileCache cache = new DiskTileCache(directory, 2 * SEGMENT, SEGMENT)) {
+            assertEquals(2, directory.toFile().list().length);
+            assertTrue(cache.size() > 0);
+            cache.put(key(100), tile(100));
+            cache.flush();
+            assertArrayEquals(tile(100), cache.get(key(100)));
+        }
+        assertEquals(2, directory.toFile().list().length);
+    }
+
+    // Оборванная запись и всё после неё отбрасываются при открытии
+    @Test
+    public void testTornRecord() throws IOException {
+        try (DiskTileCache cache = new DiskTileCache(directory, 4 * SEGMENT, SEGMENT)) {
+            cache.put(key(1), tile(1));
+            cache.put(key(2), tile(2));
+            cache.flush();
+        }
+        Path segment = directory.resolve("tiles-000.seg");
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            channel.read(length, 24);
+            int second = 24 + 56 + length.getInt(0);
+            channel.write(ByteBuffer.wrap(new byte[] {1, 2, 3}), second + 100);
+        }
+        try (DiskTileCache cache = new DiskTileCache(directory, 4 * SEGMENT, SEGMENT)) {
+            assertArrayEquals(tile(1), cache.get(key(1)));
+            assertNull(cache.get(key(2)));
+            cache.put(key(3), tile(3));
+            cache.flush();
+        }
+        try (DiskTileCache cache = new DiskTileCache(directory, 4 * SEGMENT, SEGMENT)) {
+            assertArrayEquals(tile(1), cache.get(key(1)));
+            assertArrayEquals(tile(3), cache.get(key(3)));
+        }
+    }
+
+    @Test
+    public void testClear() throws IOException {
+        try (DiskTileCache cache = new DiskTileCache(directory, 4 * SEGMENT, SEGMENT)) {
+            cache.put(key(1), tile(1));
+            cache.flush();
+            cache.clear();
+            assertNull(cache.get(key(1)));
+            cache.put(key(2), tile(2));
+            cache.flush();
+        }
+        try (DiskTileCache cache = new DiskTileCache(directory, 4 * SEGMENT, SEGMENT)) {
+            assertNull(cache.get(key(1)));
+            assertArrayEquals(tile(2), cache.get(key(2)));
+        }
+    }
+
+    // Плитки, вытесненные из памяти, читаются с диска
+    @Test
+    public void testSecondLevel() throws IOException {
+        try (DiskTileCache disk = new DiskTileCache(directory, 4 * SEGMENT, SEGMENT)) {
+            int[] counts = tile(1);
+            TileCache cache = new TileCache(4L * counts.length, disk);
+            cache.put(key(1), counts);
+            cache.put(key(2), tile(2));
+            disk.flush();
+            assertEquals(1, cache.getEvictions());
+            assertArrayEquals(counts, cache.get(key(1)));
+            assertEquals(1, cache.getDiskHits());
+            assertArrayEquals(counts, cache.get(key(1)));
+            assertEquals(1, cache.getHits());
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package demo.parallel;
+
+import java.math.BigDecimal;
+
+/**
+ * A complex number with double-double precision: each part is kept as an
+ * unevaluated sum {@code hi + lo} of two doubles with {@code |lo|} not
+ * larger than half an ulp of {@code hi}, which gives about 106 bits of
+ * mantissa. Operations mirror the ones of {@link Complex} and also modify
+ * and return this object.
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ */
+public class DoubleDoubleComplex {
+
+    private double reHi, reLo;   // the real part
+    private double imHi, imLo;   // the imaginary part
+
+    /**
+     * create a new object with the given real and imaginary parts
+     *
+     * @param reHi high part of the real part
+     * @param reLo low part of the real part
+     * @param imHi high part of the imaginary part
+     * @param imLo low part of the imaginary part
+     */
+    public DoubleDoubleComplex(double reHi, double reLo, double imHi, double imLo) {
+        this.reHi = reHi;
+        this.reLo = reLo;
+        this.imHi = imHi;
+        this.imLo = imLo;
+    }
+
+    /**
+     * create a new object rounding given values to double-double precision
+     *
+     * @param real a complex number real part
+     * @param imag a complex number imaginary part
+     */
+    public DoubleDoubleComplex(BigDecimal real, BigDecimal imag) {
+        reHi = real.doubleValue();
+        reLo = real.subtract(new BigDecimal(reHi)).doubleValue();
+        imHi = imag.doubleValue();
+        imLo = imag.subtract(new BigDecimal(imHi)).doubleValue();
+    }
+
+    /**
+     * Get real part rounded to double
+     * @return real part
+     */
+    public double getRe() {
+        return reHi + reLo;
+    }
+
+    /**
+     * Get imaginary part rounded to double
+     * @return imaginary part
+     */
+    public double getIm() {
+        return imHi + imLo;
+    }
+
+    /**
+     * @return high part of the real part
+     */
+    double getReHi() {
+        return reHi;
+    }
+
+    /**
+     * @return low part of the real part
+     */
+    double getReLo() {
+        return reLo;
+    }
+
+    /**
+     * @return high part of the imaginary part
+     */
+    double getImHi() {
+        return imHi;
+    }
+
+    /**
+     * @return low part of the imaginary part
+     */
+    double getImLo() {
+        return imLo;
+    }
+
+    /**
+     * Get real part with full precision
+     * @return real part
+     */
+    public BigDecimal getExactRe() {
+        return new BigDecimal(reHi).add(new BigDecimal(reLo));
+    }
+
+    /**
+     * Get imaginary part with full precision
+     * @return imaginary part
+     */
+    public BigDecimal getExactIm() {
+        return new BigDecimal(imHi).add(new BigDecimal(imLo));
+    }
+
+    /**
+     * Add operation.
+     * @param b summand
+     * @return this object whose value is (this + b)
+     */
+    public DoubleDoubleComplex plus(DoubleDoubleComplex b) {
+        double s = reHi + b.reHi;
+        double e = twoSumError(reHi, b.reHi, s) + reLo + b.reLo;
+        reHi = s + e;
+        reLo = e - (reHi - s);
+        s = imHi + b.imHi;
+        e = twoSumError(imHi, b.imHi, s) + imLo + b.imLo;
+        imHi = s + e;
+        imLo = e - (imHi - s);
+        return this;
+    }
+
+    /**
+     * Multiply operation.
+     * @param b multiplier
+     * @return this object whose value is this * b
+     */
+    public DoubleDoubleComplex times(DoubleDoubleComplex b) {
+        // (a + bi)(c + di) = (ac - bd) + (ad + bc)i
+        double acHi = reHi * b.reHi;
+        double acLo = Math.fma(reHi, b.reHi, -acHi) + reHi * b.reLo + reLo * b.reHi;
+        double bdHi = imHi * b.imHi;
+        double bdLo = Math.fma(imHi, b.imHi, -bdHi) + imHi * b.imLo + imLo * b.imHi;
+        double adHi = reHi * b.imHi;
+        double adLo = Math.fma(reHi, b.imHi, -adHi) + reHi * b.imLo + reLo * b.imHi;
+        double bcHi = imHi * b.reHi;
+        double bcLo = Math.fma(imHi, b.reHi, -bcHi) + imHi * b.reLo + imLo * b.reHi;
+
+        double s = acHi - bdHi;
+        double e = twoSumError(acHi, -bdHi, s) + acLo - bdLo;
+        reHi = s + e;
+        reLo = e - (reHi - s);
+        s = adHi + bcHi;
+        e = twoSumError(adHi, bcHi, s) + adLo + bcLo;
+        imHi = s + e;
+        imLo = e - (imHi - s);
+        return this;
+    }
+
+    /**
+     * Square operation (z²).
+     * @return this object whose value is this²
+     */
+    public DoubleDoubleComplex square() {
+        double rrHi = reHi * reHi;
+        double rrLo = Math.fma(reHi, reHi, -rrHi) + 2 * reHi * reLo;
+        double iiHi = imHi * imHi;
+        double iiLo = Math.fma(imHi, imHi, -iiHi) + 2 * imHi * imLo;
+        double riHi = reHi * imHi;
+        double riLo = Math.fma(reHi, imHi, -riHi) + reHi * imLo + reLo * imHi;
+
+        double s = rrHi - iiHi;
+        double e = twoSumError(rrHi, -iiHi, s) + rrLo - iiLo;
+        reHi = s + e;
+        reLo = e - (reHi - s);
+        imHi = 2 * riHi + 2 * riLo;
+        imLo = 2 * riLo - (imHi - 2 * riHi);
+        return this;
+    }
+
+    /**
+     * Square of the object's length, precision of a double is enough for
+     * escape checks.
+     * @return square of length
+     */
+    public double lengthSQ() {
+        double re = reHi + reLo;
+        double im = imHi + imLo;
+        return re * re + im * im;
+    }
+
+    /**
+     * Создает копию комплексного числа
+     * @return копия объекта
+     */
+    public DoubleDoubleComplex copy() {
+        return new DoubleDoubleComplex(reHi, reLo, imHi, imLo);
+    }
+
+    /**
+     * Rounding error of a + b = s (Knuth's TwoSum)
+     * @param a first summand
+     * @param b second summand
+     * @param s rounded sum a + b
+     * @return exact value of a + b - s
+     */
+    static double twoSumError(double a, double b, double s) {
+        double bb = s - a;
+        return (a - (s - bb)) + (b - bb);
+    }
+
+    @Override
+    public String toString() {
+        BigDecimal im = getExactIm();
+        if (im.signum() >= 0) {
+            return getExactRe() + " + " + im + "i";
+        } else {
+            return getExactRe() + " - " + im.negate() + "i";
+        }
+    }
+}
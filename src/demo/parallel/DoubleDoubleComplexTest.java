@@ -0,0 +1,76 @@
+package demo.parallel;
+
+import java.math.BigDecimal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DoubleDoubleComplexTest {
+
+    private DoubleDoubleComplex a;
+    private DoubleDoubleComplex b;
+
+    @BeforeEach
+    public void setUp() {
+        a = new DoubleDoubleComplex(3.0, 0, 4.0, 0);   // 3 + 4i
+        b = new DoubleDoubleComplex(1.0, 0, 2.0, 0);   // 1 + 2i
+    }
+
+    // Базовые операции, как в ComplexTest
+    @Test
+    public void testPlus() {
+        DoubleDoubleComplex result = a.copy().plus(b);
+        assertEquals(4.0, result.getRe(), 1e-10);
+        assertEquals(6.0, result.getIm(), 1e-10);
+    }
+
+    @Test
+    public void testTimes() {
+        DoubleDoubleComplex result = a.copy().times(b);
+        assertEquals(-5.0, result.getRe(), 1e-10);
+        assertEquals(10.0, result.getIm(), 1e-10);
+    }
+
+    @Test
+    public void testSquare() {
+        DoubleDoubleComplex result = b.copy().square();
+        assertEquals(-3.0, result.getRe(), 1e-10);
+        assertEquals(4.0, result.getIm(), 1e-10);
+    }
+
+    @Test
+    public void testLengthSQ() {
+        assertEquals(25.0, a.lengthSQ(), 1e-10);
+    }
+
+    // Точность выше double
+    @Test
+    public void testPrecisionBeyondDouble() {
+        // (1 + 2^-60)² = 1 + 2^-59 + 2^-120, в double это просто 1
+        double eps = Math.scalb(1.0, -60);
+        DoubleDoubleComplex z = new DoubleDoubleComplex(1.0, eps, 0, 0).square();
+        BigDecimal expected = BigDecimal.ONE.add(new BigDecimal(eps)).pow(2);
+        BigDecimal error = z.getExactRe().subtract(expected).abs();
+        assertTrue(error.compareTo(new BigDecimal("1e-30")) < 0, "error " + error);
+    }
+
+    @Test
+    public void testTimesMatchesSquare() {
+        DoubleDoubleComplex z = new DoubleDoubleComplex(new BigDecimal("0.1234567890123456789012345678901"),
+                new BigDecimal("-0.9876543210987654321098765432109"));
+        DoubleDoubleComplex squared = z.copy().square();
+        DoubleDoubleComplex multiplied = z.copy().times(z);
+        BigDecimal tolerance = new BigDecimal("1e-30");
+        assertTrue(squared.getExactRe().subtract(multiplied.getExactRe()).abs().compareTo(tolerance) < 0);
+        assertTrue(squared.getExactIm().subtract(multiplied.getExactIm()).abs().compareTo(tolerance) < 0);
+    }
+
+    @Test
+    public void testBigDecimalRoundTrip() {
+        BigDecimal value = new BigDecimal("-1.4831212261009999999999999999999");
+        DoubleDoubleComplex z = new DoubleDoubleComplex(value, value.negate());
+        assertTrue(z.getExactRe().subtract(value).abs().compareTo(new BigDecimal("1e-31")) < 0);
+        assertTrue(z.getExactIm().add(value).abs().compareTo(new BigDecimal("1e-31")) < 0);
+    }
+}
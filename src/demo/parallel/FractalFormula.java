@@ -0,0 +1,268 @@
+package demo.parallel;
+
+/**
+ * Fractal formulas the renderer can calculate. Each one corresponds to an
+ * equation of {@link Complex} and has its own kernel with the orbit kept in
+ * primitive locals, so nothing is allocated per iteration. The kernels do
+ * the same operations in the same order as the {@link Complex} methods, so
+ * iteration counts are identical to a loop over {@link Complex} objects.
+ * <p>
+ * Every formula also carries its escape radius and iteration budget, as
+ * transcendental formulas need a larger radius and are more expensive per
+ * iteration.
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ */
+public enum FractalFormula {
+
+    /**
+     * z = z² + c, see {@link Complex#mandelbrot(demo.parallel.Complex)}
+     */
+    MANDELBROT(MandelbrotSetRenderer.LENGTH_BOUNDARY, MandelbrotSetRenderer.CAL_MAX_COUNT, false) {
+        @Override
+        int calc(double re, double im) {
+            return MandelbrotSetRenderer.calc(re, im);
+        }
+    },
+
+    /**
+     * z = z³ + c, see {@link Complex#cubicMandelbrot(demo.parallel.Complex)}
+     */
+    CUBIC(6, 256, false) {
+        @Override
+        int calc(double re, double im) {
+            int count = 0;
+            double zr = 0, zi = 0;
+            do {
+                double real = zr * zr * zr - 3 * zr * zi * zi;
+                double imag = 3 * zr * zr * zi - zi * zi * zi;
+                zr = real + re;
+                zi = imag + im;
+                count++;
+            } while (count < maxIterations && zr * zr + zi * zi < escapeRadiusSQ);
+            return count;
+        }
+    },
+
+    /**
+     * z = z⁴ + c, see {@link Complex#quarticMandelbrot(demo.parallel.Complex)}
+     */
+    QUARTIC(6, 256, false) {
+        @Override
+        int calc(double re, double im) {
+            int count = 0;
+            double zr = 0, zi = 0;
+            do {
+                double real = zr * zr * zr * zr - 6 * zr * zr * zi * zi + zi * zi * zi * zi;
+                double imag = 4 * zr * zr * zr * zi - 4 * zr * zi * zi * zi;
+                zr = real + re;
+                zi = imag + im;
+                count++;
+            } while (count < maxIterations && zr * zr + zi * zi < escapeRadiusSQ);
+            return count;
+        }
+    },
+
+    /**
+     * z = e^z + c, see {@link Complex#exponentialFractal(demo.parallel.Complex)}
+     */
+    EXPONENTIAL(2500, 128, false) {
+        @Override
+        int calc(double re, double im) {
+            int count = 0;
+            double zr = 0, zi = 0;
+            do {
+                double magnitude = Math.exp(zr);
+                double real = magnitude * Math.cos(zi);
+                double imag = magnitude * Math.sin(zi);
+                zr = real + re;
+                zi = imag + im;
+                count++;
+            } while (count < maxIterations && zr * zr + zi * zi < escapeRadiusSQ);
+            return count;
+        }
+    },
+
+    /**
+     * z = sin(z) + c, see {@link Complex#sineFractal(demo.parallel.Complex)}
+     */
+    SINE(2500, 128, false) {
+        @Override
+        int calc(double re, double im) {
+            int count = 0;
+            double zr = 0, zi = 0;
+            do {
+                double real = Math.sin(zr) * Math.cosh(zi);
+                double imag = Math.cos(zr) * Math.sinh(zi);
+                zr = real + re;
+                zi = imag + im;
+                count++;
+            } while (count < maxIterations && zr * zr + zi * zi < escapeRadiusSQ);
+            return count;
+        }
+    },
+
+    /**
+     * z = cos(z) + c, see {@link Complex#cosineFractal(demo.parallel.Complex)}
+     */
+    COSINE(2500, 128, false) {
+        @Override
+        int calc(double re, double im) {
+            int count = 0;
+            double zr = 0, zi = 0;
+            do {
+                double real = Math.cos(zr) * Math.cosh(zi);
+                double imag = -Math.sin(zr) * Math.sinh(zi);
+                zr = real + re;
+                zi = imag + im;
+                count++;
+            } while (count < maxIterations && zr * zr + zi * zi < escapeRadiusSQ);
+            return count;
+        }
+    },
+
+    /**
+     * z = ln(z) + c, see {@link Complex#logarithmicFractal(demo.parallel.Complex)}.
+     * Hitting the singularity at zero counts as escape.
+     */
+    LOGARITHMIC(100, 128, true) {
+        @Override
+        int calc(double re, double im) {
+            int count = 0;
+            double zr = re, zi = im;
+            do {
+                if (Math.abs(zr) < 1e-15 && Math.abs(zi) < 1e-15) {
+                    return count + 1;
+                }
+                double magnitude = Math.log(Math.sqrt(zr * zr + zi * zi));
+                double angle = Math.atan2(zi, zr);
+                zr = magnitude + re;
+                zi = angle + im;
+                count++;
+            } while (count < maxIterations && zr * zr + zi * zi < escapeRadiusSQ);
+            return count;
+        }
+    },
+
+    /**
+     * z = z² * c + z, see {@link Complex#combinedFractal1(demo.parallel.Complex)}
+     */
+    COMBINED_1(100, 256, true) {
+        @Override
+        int calc(double re, double im) {
+            int count = 0;
+            double zr = re, zi = im;
+            do {
+                double sr = zr * zr - zi * zi;
+                double si = 2 * zr * zi;
+                double real = sr * re - si * im;
+                double imag = sr * im + si * re;
+                zr = real + zr;
+                zi = imag + zi;
+                count++;
+            } while (count < maxIterations && zr * zr + zi * zi < escapeRadiusSQ);
+            return count;
+        }
+    },
+
+    /**
+     * z = sin(z²) + cos(z) * c, see
+     * {@link Complex#combinedFractal2(demo.parallel.Complex)}
+     */
+    COMBINED_2(2500, 128, false) {
+        @Override
+        int calc(double re, double im) {
+            int count = 0;
+            double zr = 0, zi = 0;
+            do {
+                double sr = zr * zr - zi * zi;
+                double si = 2 * zr * zi;
+                double sinR = Math.sin(sr) * Math.cosh(si);
+                double sinI = Math.cos(sr) * Math.sinh(si);
+                double cosR = Math.cos(zr) * Math.cosh(zi);
+                double cosI = -Math.sin(zr) * Math.sinh(zi);
+                double real = cosR * re - cosI * im;
+                double imag = cosR * im + cosI * re;
+                zr = sinR + real;
+                zi = sinI + imag;
+                count++;
+            } while (count < maxIterations && zr * zr + zi * zi < escapeRadiusSQ);
+            return count;
+        }
+    },
+
+    /**
+     * z = 1/z + c, see {@link Complex#reciprocalFractal(demo.parallel.Complex)}.
+     * Hitting the singularity at zero counts as escape.
+     */
+    RECIPROCAL(100, 128, true) {
+        @Override
+        int calc(double re, double im) {
+            int count = 0;
+            double zr = re, zi = im;
+            do {
+                double denominator = zr * zr + zi * zi;
+                if (Math.abs(denominator) < 1e-15) {
+                    return count + 1;
+                }
+                double real = zr / denominator;
+                double imag = -zi / denominator;
+                zr = real + re;
+                zi = imag + im;
+                count++;
+            } while (count < maxIterations && zr * zr + zi * zi < escapeRadiusSQ);
+            return count;
+        }
+    };
+
+    /**
+     * Square of the radius, orbits leaving it are considered escaped
+     */
+    final double escapeRadiusSQ;
+
+    /**
+     * Max number of iterations, points which don't escape within it are
+     * considered to be inside of the set
+     */
+    final int maxIterations;
+
+    /**
+     * Whether the orbit starts at c instead of zero, for formulas which are
+     * singular or stuck at zero
+     */
+    final boolean startsAtC;
+
+    private FractalFormula(double escapeRadiusSQ, int maxIterations, boolean startsAtC) {
+        this.escapeRadiusSQ = escapeRadiusSQ;
+        this.maxIterations = maxIterations;
+        this.startsAtC = startsAtC;
+    }
+
+    /**
+     * Calculates number of iterations the orbit of a given point stays
+     * within the escape radius.
+     * @param re real part of a complex number used for calculation
+     * @param im imaginary part of a complex number used for calculation
+     * @return number of iterations, {@link #getMaxIterations()} for points
+     * which don't escape
+     */
+    abstract int calc(double re, double im);
+
+    /**
+     * @return square of the escape radius
+     */
+    public double getEscapeRadiusSQ() {
+        return escapeRadiusSQ;
+    }
+
+    /**
+     * @return iteration budget of this formula
+     */
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+}
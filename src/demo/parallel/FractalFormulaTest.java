@@ -0,0 +1,90 @@
+package demo.parallel;
+
+import java.util.function.BiFunction;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FractalFormulaTest {
+
+    private static final int SIZE = 80;
+
+    /**
+     * Уравнение Complex, соответствующее формуле
+     */
+    private static BiFunction<Complex, Complex, Complex> equation(FractalFormula formula) {
+        switch (formula) {
+            case MANDELBROT: return Complex::mandelbrot;
+            case CUBIC: return Complex::cubicMandelbrot;
+            case QUARTIC: return Complex::quarticMandelbrot;
+            case EXPONENTIAL: return Complex::exponentialFractal;
+            case SINE: return Complex::sineFractal;
+            case COSINE: return Complex::cosineFractal;
+            case LOGARITHMIC: return Complex::logarithmicFractal;
+            case COMBINED_1: return Complex::combinedFractal1;
+            case COMBINED_2: return Complex::combinedFractal2;
+            case RECIPROCAL: return Complex::reciprocalFractal;
+            default: throw new AssertionError(formula);
+        }
+    }
+
+    /**
+     * Эталонный расчет через объекты Complex
+     */
+    private static int calcWithComplex(FractalFormula formula, double re, double im) {
+        BiFunction<Complex, Complex, Complex> equation = equation(formula);
+        Complex c = new Complex(re, im);
+        Complex z = formula.startsAtC ? c.copy() : new Complex(0, 0);
+        int count = 0;
+        do {
+            try {
+                z = equation.apply(z, c);
+            } catch (ArithmeticException e) {
+                return count + 1;
+            }
+            count++;
+        } while (count < formula.getMaxIterations()
+                && z.lengthSQ() < formula.getEscapeRadiusSQ());
+        return count;
+    }
+
+    // Специализированные ядра дают те же счетчики, что и уравнения Complex
+    @Test
+    public void testKernelsMatchComplexEquations() {
+        for (FractalFormula formula : FractalFormula.values()) {
+            for (int y = 0; y < SIZE; y++) {
+                double im = -2 + 4d * y / SIZE;
+                for (int x = 0; x < SIZE; x++) {
+                    double re = -2.5 + 4d * x / SIZE;
+                    assertEquals(calcWithComplex(formula, re, im), formula.calc(re, im),
+                            formula + " at " + re + "," + im);
+                }
+            }
+        }
+    }
+
+    // Особые точки считаются убежавшими, а не приводят к исключению
+    @Test
+    public void testSingularities() {
+        assertEquals(1, FractalFormula.LOGARITHMIC.calc(0, 0));
+        assertEquals(1, FractalFormula.RECIPROCAL.calc(0, 0));
+    }
+
+    @Test
+    public void testCountsWithinBudget() {
+        for (FractalFormula formula : FractalFormula.values()) {
+            assertTrue(formula.getEscapeRadiusSQ() > 0);
+            for (int i = 0; i < SIZE; i++) {
+                int count = formula.calc(-2 + 4d * i / SIZE, 0.3);
+                assertTrue(count >= 1 && count <= formula.getMaxIterations(), formula + ": " + count);
+            }
+        }
+    }
+
+    // Для Мандельброта палитра и бюджет не изменились
+    @Test
+    public void testMandelbrotBudget() {
+        assertEquals(MandelbrotSetRenderer.CAL_MAX_COUNT, FractalFormula.MANDELBROT.getMaxIterations());
+        assertEquals(MandelbrotSetRenderer.LENGTH_BOUNDARY, FractalFormula.MANDELBROT.getEscapeRadiusSQ());
+    }
+}
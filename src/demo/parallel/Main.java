@@ -31,6 +31,11 @@
 package demo.parallel;
 
 
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.IntBuffer;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Locale;
 import javafx.animation.AnimationTimer;
@@ -38,10 +43,12 @@ import javafx.application.Application;
 import javafx.beans.binding.StringBinding;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.LongProperty;
+import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleLongProperty;
 import javafx.beans.property.StringProperty;
 import javafx.geometry.HPos;
 import javafx.geometry.Point2D;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.SnapshotParameters;
@@ -51,6 +58,8 @@ import javafx.scene.control.Label;
 import javafx.scene.control.ProgressBar;
 import javafx.scene.control.ToggleButton;
 import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
 import javafx.scene.input.KeyCode;
 import javafx.scene.layout.Background;
@@ -80,6 +89,19 @@ import javafx.scene.control.ProgressIndicator;
  */
 public class Main extends Application {
 
+
+    /**
+     * Min scale, pixel offsets from the reference orbit have to stay well
+     * within the range of doubles
+     */
+    private static final double MIN_SCALE = 1e-290;
+
+    /**
+     * Max time in nanoseconds to spend each frame on drawing framebuffer
+     * updates, half of a frame at 60 fps. The rest is drawn next frames.
+     */
+    private static final long FRAME_UPDATE_BUDGET = 8_000_000;
+
     /**
      * Current position in fractal
      */
@@ -131,7 +153,24 @@ public class Main extends Application {
     private MandelbrotSetTask parallelTask;
 
     /**
-     * Image to draw fractal offscreen
+     * Framebuffer the fractal is rendered to
+     */
+    private OffscreenImage offscreen;
+    
+    /**
+     * Pixel buffer sharing memory with the framebuffer
+     */
+    private PixelBuffer<IntBuffer> pixelBuffer;
+    
+    /**
+     * Band of the framebuffer to start drawing updates from next frame, so
+     * that bands left over because of the frame budget are drawn first
+     */
+    private int nextBand;
+    
+    /**
+     * Image to draw fractal offscreen, displays the framebuffer without
+     * copying it
      */
     private WritableImage wiOffscreen;
     
@@ -210,6 +249,12 @@ public class Main extends Application {
      */
     private final LongProperty sequentialTimeValue = new SimpleLongProperty();
     
+    /**
+     * Speedup of parallel calculation over sequential one, 0 until parallel
+     * calculation is finished
+     */
+    private final DoubleProperty speedupValue = new SimpleDoubleProperty();
+    
     /**
      * Total time of sequential calculation (for comparison)
      */
@@ -220,6 +265,119 @@ public class Main extends Application {
      */
     private FlyingAnimation flyingAnimation;
 
+    /**
+     * Engine requested for calculations
+     */
+    private MandelbrotSetRenderer.Engine engine = MandelbrotSetRenderer.Engine.VECTOR;
+
+    /**
+     * Fractal formula to render
+     */
+    private FractalFormula formula = FractalFormula.MANDELBROT;
+
+    /**
+     * Palette to color the image with and number of entries it is rotated
+     * by
+     */
+    private Palette palette = Palette.CLASSIC;
+    private int paletteShift;
+
+    /**
+     * True while palette is being cycled
+     */
+    private boolean cyclingPalette;
+
+    /**
+     * Last task which rendered the whole image successfully, it can color
+     * the image again without calculations. Null when the image was changed
+     * since then.
+     */
+    private MandelbrotSetTask finishedTask;
+
+    /**
+     * Size of tiles the image is split into for parallel rendering, 0 to 
+     * split it into lines
+     */
+    private int tileSize = TileScheduler.DEFAULT_TILE_SIZE;
+
+    /**
+     * Whether interactive renders go coarse to fine, see 
+     * {@link MandelbrotSetTask#setProgressive(boolean)}
+     */
+    private boolean progressive = true;
+
+    /**
+     * Point the next render goes outward from, null for the center
+     */
+    private Point2D focus;
+
+    /**
+     * Pixels of the canvas showing final results for the current position, 
+     * filled by the current task, null after fast renders
+     */
+    private PixelMask validPixels;
+
+    /**
+     * Pixels of the canvas the next render keeps, null to render all
+     */
+    private PixelMask keptPixels;
+
+    /**
+     * The most recently started task, its iteration counts belong to the
+     * current position
+     */
+    private MandelbrotSetTask lastTask;
+
+    /**
+     * Task the next render takes iteration counts from after zooming by
+     * {@link #zoomedBy} around {@link #focus}, null if there is none
+     */
+    private MandelbrotSetTask zoomedFrom;
+    private double zoomedBy;
+
+    /**
+     * Budget of the tile cache in megabytes, 0 to disable it
+     */
+    private long cacheSize = 256;
+
+    /**
+     * Directory of the disk tile cache, null to disable it
+     */
+    private String diskCacheDir;
+
+    /**
+     * Budget of the disk tile cache in megabytes, at least two segments
+     * of {@link DiskTileCache#DEFAULT_SEGMENT_SIZE}
+     */
+    private long diskCacheSize = 1024;
+
+    /**
+     * Iteration counts of areas visited in previous sessions, null if
+     * disabled
+     */
+    private DiskTileCache diskCache;
+
+    /**
+     * Iteration counts of areas visited before, null if disabled
+     */
+    private TileCache tileCache;
+
+    /**
+     * Priority of render worker threads, below normal to keep the JavaFX
+     * Application Thread responsive
+     */
+    private static final int RENDER_PRIORITY = Thread.NORM_PRIORITY - 1;
+
+    /**
+     * Number of render worker threads
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Runs render tasks in a dedicated pool
+     */
+    private RenderService renderService;
+
     /**
      * Creates control pane controls on top
      */
@@ -254,6 +412,7 @@ public class Main extends Application {
         sequentialTimeBar = sequentialProgressBar.progressProperty();
 
         Label parallelLabel = new Label("Parallel");
+        parallelLabel.textProperty().bind(new SpeedupToStringBinding(speedupValue));
 
         Label parallelTime = new Label("0:00.00");
         parallelTime.textProperty().bind(new TimeToStringBinding(parallelTimeValue));
@@ -313,17 +472,17 @@ public class Main extends Application {
     /**
      * Creates content of the scene.
      */
-    private Parent createContent(double minR, double minI, double maxR, double maxI) {
+    private Parent createContent(Position target) {
 
         Parent controlPane = createControlPane();
 
-        wiOffscreen = new WritableImage((int) winWidth, (int) winHeight);
+        createOffscreen();
         wiSnapshot = new WritableImage((int) winWidth, (int) winHeight);
         canvas = new Canvas(winWidth, winHeight);
         render(() -> {
             wiGlobalSnapshot = new WritableImage(wiOffscreen.getPixelReader(), (int) winWidth, (int) winHeight);
             ivGlobalSnapshot.setImage(wiGlobalSnapshot);
-            flyToPosition(minR, minI, maxR, maxI);
+            flyToPosition(target);
         });
         global = new Position(position);
 
@@ -335,8 +494,10 @@ public class Main extends Application {
             if (disable.get()) {
                 return;
             }
-            double x = t.getX();
-            double y = t.getY();
+            // Zoom around a whole pixel, so that pixels of the new image fall
+            // on pixels of the old one and their counts can be reused
+            double x = Math.rint(t.getX());
+            double y = Math.rint(t.getY());
             double scaleBase = t.isControlDown() ? 1.1 : t.isShiftDown() ? 10 : 2;
             double byScale = (t.getDeltaY() > 0) ? 1 / scaleBase : scaleBase;
             handleContentZoomed(x, y, byScale);
@@ -356,8 +517,8 @@ public class Main extends Application {
             if (disable.get()) {
                 return;
             }
-            canvas.setTranslateX(e.getSceneX() - gestureX);
-            canvas.setTranslateY(e.getSceneY() - gestureY);
+            canvas.setTranslateX(Math.rint(e.getSceneX() - gestureX));
+            canvas.setTranslateY(Math.rint(e.getSceneY() - gestureY));
         });
 
         Translate antiTranslate = new Translate();
@@ -371,8 +532,11 @@ public class Main extends Application {
             if (disable.get()) {
                 return;
             }
-            double moveX = Math.min(Math.max(e.getSceneX() - gestureX, -winWidth), winWidth * 2);
-            double moveY = Math.min(Math.max(e.getSceneY() - gestureY, -winHeight), winHeight * 2);
+            // Move by whole pixels, so that pixels of the old image are
+            // drawn on pixels of the new one and can be kept without
+            // resampling
+            int moveX = (int) Math.rint(Math.min(Math.max(e.getSceneX() - gestureX, -winWidth), winWidth * 2));
+            int moveY = (int) Math.rint(Math.min(Math.max(e.getSceneY() - gestureY, -winHeight), winHeight * 2));
             //Only redraw when there is a movement
             if (moveX != 0 || moveY != 0) {
                 handleContentMoved(moveX, moveY);
@@ -431,12 +595,15 @@ public class Main extends Application {
         if (winWidth != rootPane.getWidth() || winHeight != rootPane.getHeight()) {
             handleWindowResize();
         }
+        if (cyclingPalette && task == null) {
+            paletteShift = (paletteShift + 1) % Palette.SIZE;
+            recolor();
+        }
+        if (task == null || !task.isCancelled()) {
+            drawOffscreenUpdates(FRAME_UPDATE_BUDGET);
+        }
         if (task != null) {
             progress.set(task.getProgress());
-            if (!task.isCancelled() && task.hasUpdates()) {
-                task.clearHasUpdates();
-                canvas.getGraphicsContext2D().drawImage(wiOffscreen, 0, 0, wiOffscreen.getWidth(), wiOffscreen.getHeight(), 0, 0, winWidth, winHeight);
-            }
             updateTime();
             if (task.isDone()) {
                 task = null;
@@ -446,6 +613,51 @@ public class Main extends Application {
         oldY = newY;
     }
 
+    /**
+     * Creates the framebuffer and an image backed by it for the current 
+     * window size
+     */
+    private void createOffscreen() {
+        offscreen = new OffscreenImage((int) winWidth, (int) winHeight);
+        pixelBuffer = new PixelBuffer<>(offscreen.getWidth(), offscreen.getHeight(),
+                offscreen.getBuffer(), PixelFormat.getIntArgbPreInstance());
+        wiOffscreen = new WritableImage(pixelBuffer);
+    }
+
+    /**
+     * Lets the image know which parts of the framebuffer were written since
+     * the last frame and draws only those parts on the canvas, band by band
+     * until the time budget is spent.
+     * @param budget max time to spend in nanoseconds
+     */
+    private void drawOffscreenUpdates(long budget) {
+        long start = System.nanoTime();
+        int bands = offscreen.getBandCount();
+        for (int i = 0; i < bands; i++) {
+            int band = (nextBand + i) % bands;
+            int[] dirty = offscreen.takeDirtyRegion(band);
+            if (dirty == null) {
+                continue;
+            }
+            pixelBuffer.updateBuffer(b -> new Rectangle2D(dirty[0], dirty[1], dirty[2], dirty[3]));
+            canvas.getGraphicsContext2D().drawImage(wiOffscreen, dirty[0], dirty[1], dirty[2], dirty[3],
+                    dirty[0], dirty[1], dirty[2], dirty[3]);
+            if (System.nanoTime() - start > budget) {
+                nextBand = band + 1;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes a snapshot of the canvas into {@link #wiSnapshot}, framebuffer
+     * updates not drawn yet are drawn first
+     */
+    private void snapshotCanvas() {
+        drawOffscreenUpdates(Long.MAX_VALUE);
+        canvas.snapshot(snapshotParameters, wiSnapshot);
+    }
+
     /**
      * Updates bars and labels with the current task time in comparison mode
      */
@@ -455,6 +667,9 @@ public class Main extends Application {
                 long time = task.getTime();
                 parallelTimeBar.set(time / sequentialTotalTime);
                 parallelTimeValue.set(time);
+                if (task.getState() == Worker.State.SUCCEEDED && time > 0) {
+                    speedupValue.set(sequentialTotalTime / time);
+                }
             } else if (task == sequentialTask) {
                 long time = task.getTime();
                 sequentialTimeBar.set(task.getProgress());
@@ -463,104 +678,136 @@ public class Main extends Application {
         }
     }
 
-    private void handleContentZoomed(final double x, final double y, final double byScale) {
-        stopTask();
-
-        double oldMinR = position.getMinReal();
-        double oldMinI = position.getMinImg();
-        double oldMaxR = position.getMaxReal();
-        double oldMaxI = position.getMaxImg();
+    private void handleContentZoomed(double x, double y, final double byScale) {
         double oldScale = position.scale;
+        double newScale = oldScale * byScale;
+        if (newScale < MIN_SCALE) {
+            return;
+        }
+        stopTask();
 
-        double zoomCenterReal = position.real + (x - winWidth / 2) * position.scale;
-        double zoomCenterImg = position.img + (y - winHeight / 2) * position.scale;
+        if (tileCache != null) {
+            // The image is aligned to the grid of the cache, zooming out
+            // keeps it aligned only around some pixels
+            x = snapZoomCenter(x, position.getMinReal(), winWidth, byScale);
+            y = snapZoomCenter(y, position.getMinImg(), winHeight, byScale);
+        }
 
-        double newScale = oldScale * byScale;
-        double newMinR = zoomCenterReal - x * newScale;
-        double newMinI = zoomCenterImg - y * newScale;
-        double newMaxR = newMinR + newScale * winWidth;
-        double newMaxI = newMinI + newScale * winHeight;
-        setPosition(newMinR, newMinI, newMaxR, newMaxI);
+        // The point under the cursor stays in place
+        position.move((x - winWidth / 2) * (oldScale - newScale),
+                (y - winHeight / 2) * (oldScale - newScale));
+        position.scale = newScale;
 
-        canvas.snapshot(snapshotParameters, wiSnapshot);
+        snapshotCanvas();
 
-        double minR = Math.max(position.getMinReal(), oldMinR);
-        double minI = Math.max(position.getMinImg(), oldMinI);
-        double maxR = Math.min(position.getMaxReal(), oldMaxR);
-        double maxI = Math.min(position.getMaxImg(), oldMaxI);
-
-        // x = (re - minR) / scale
-        double sx = Math.max(0, (minR - oldMinR) / oldScale);
-        double sy = Math.max(0, (minI - oldMinI) / oldScale);
-        double sw = Math.min(winWidth, (maxR - oldMinR) / oldScale) - sx;
-        double sh = Math.min(winHeight, (maxI - oldMinI) / oldScale) - sy;
-        double dx = Math.max(0, (minR - newMinR) / newScale);
-        double dy = Math.max(0, (minI - newMinI) / newScale);
-        double dw = Math.min(winWidth, (maxR - newMinR) / newScale) - dx;
-        double dh = Math.min(winHeight, (maxI - newMinI) / newScale) - dy;
+        // Old pixel p goes to x + (p - x) / byScale on the new image, so the
+        // old image covers the following part of the new one
+        double dx = Math.max(0, x - x / byScale);
+        double dy = Math.max(0, y - y / byScale);
+        double dw = Math.min(winWidth, x + (winWidth - x) / byScale) - dx;
+        double dh = Math.min(winHeight, y + (winHeight - y) / byScale) - dy;
+        double sx = x + (dx - x) * byScale;
+        double sy = y + (dy - y) * byScale;
+        double sw = dw * byScale;
+        double sh = dh * byScale;
 
         canvas.getGraphicsContext2D().clearRect(0, 0, winWidth, winHeight);
         canvas.getGraphicsContext2D().drawImage(wiSnapshot, sx, sy, sw, sh, dx, dy, dw, dh);
 
+        // The user looks at the point under the cursor
+        focus = new Point2D(x, y);
+        zoomedFrom = lastTask;
+        zoomedBy = byScale;
         render(null);
     }
 
-    private void handleContentMoved(double moveX, double moveY) {
-        boolean cancelled = stopTask();
+    /**
+     * Moves the center of a zoom out by a whole ratio to the nearest pixel
+     * which keeps the image on the grid of pixels of the new scale, so that
+     * aligning it doesn't move it off the pixels of the old image. Around
+     * pixel x the grid coordinate of the left side goes from g to
+     * (g + x) / ratio - x, which is whole when g + x is a multiple of the
+     * ratio. Zooming in by a whole ratio keeps the image aligned anyway.
+     * @param x zoom center along an axis in whole pixels
+     * @param min value of the left or top side of the image
+     * @param size width or height of the image
+     * @param byScale new pixel size divided by the old one
+     * @return zoom center to use
+     */
+    private double snapZoomCenter(double x, double min, double size, double byScale) {
+        if (byScale <= 1 || byScale != Math.rint(byScale) || x != Math.rint(x)
+                || position.scale < MandelbrotSetRenderer.MEDIUM_ZOOM_SCALE) {
+            return x;
+        }
+        double grid = min / position.scale;
+        if (Math.abs(grid - Math.rint(grid)) > MandelbrotSetRenderer.GRID_TOLERANCE) {
+            return x;
+        }
+        long ratio = (long) byScale;
+        long rest = Math.floorMod((long) Math.rint(grid) + (long) x, ratio);
+        double snapped = rest <= ratio / 2 ? x - rest : x + ratio - rest;
+        if (snapped < 0) {
+            snapped += ratio;
+        } else if (snapped > size) {
+            snapped -= ratio;
+        }
+        return snapped;
+    }
+
+    private void handleContentMoved(int moveX, int moveY) {
+        stopTask();
+        // Pixels the task finished so far move with the image, the mask is
+        // taken before the snapshot so that all of them are in it
+        keptPixels = validPixels == null ? null
+                : validPixels.shifted((int) winWidth, (int) winHeight, moveX, moveY);
 
         double realMove = position.scale * moveX;
         double imgMove = position.scale * moveY;
-        position.real -= realMove;
-        position.img -= imgMove;
+        position.move(-realMove, -imgMove);
         double sx = Math.max(0, -moveX);
         double sy = Math.max(0, -moveY);
         double sw = Math.min(winWidth, -moveX + winWidth) - sx;
         double sh = Math.min(winHeight, -moveY + winHeight) - sy;
         double dx = Math.max(0, moveX);
         double dy = Math.max(0, moveY);
-        canvas.snapshot(snapshotParameters, wiSnapshot);
+        snapshotCanvas();
         canvas.getGraphicsContext2D().clearRect(0, 0, winWidth, winHeight);
         canvas.getGraphicsContext2D().drawImage(wiSnapshot, sx, sy, sw, sh, dx, dy, sw, sh);
         canvas.setTranslateX(0);
         canvas.setTranslateY(0);
 
-        if (cancelled) {
-            render(null);
-        } else {
-            render(null, dx, dy, dx + sw, dy + sh);
-        }
+        render(null);
     }
 
     private void handleWindowResize() {
-        boolean cancelled;
         if (flyingAnimation != null) {
             flyingAnimation.abort();
-            cancelled = true;
         } else {
-            cancelled = stopTask();
+            stopTask();
         }
 
-        double moveX = newX - oldX;
-        double moveY = newY - oldY;
+        // Window positions may be fractional on HiDPI screens
+        int moveX = (int) Math.rint(newX - oldX);
+        int moveY = (int) Math.rint(newY - oldY);
 
-        double minR = position.getMinReal() + position.scale * moveX;
-        double minI = position.getMinImg() + position.scale * moveY;
-        
         double oldWidth = winWidth;
         double oldHeight = winHeight;
         winWidth = rootPane.getWidth();
         winHeight = rootPane.getHeight();
 
-        canvas.snapshot(snapshotParameters, wiSnapshot);
+        keptPixels = validPixels == null ? null
+                : validPixels.shifted((int) winWidth, (int) winHeight, -moveX, -moveY);
+        snapshotCanvas();
 
         canvas.setWidth(winWidth);
         canvas.setHeight(winHeight);
 
-        wiOffscreen = new WritableImage((int) winWidth, (int) winHeight);
+        createOffscreen();
 
-        double maxR = minR + position.scale * winWidth;
-        double maxI = minI + position.scale * winHeight;
-        setPosition(minR, minI, maxR, maxI);
+        // Top left corner moves with the window, the center moves with it
+        // and with the change of the window size
+        position.move(position.scale * (moveX + (winWidth - oldWidth) / 2),
+                position.scale * (moveY + (winHeight - oldHeight) / 2));
 
         // make sure global snapshot is centered
         ivGlobalSnapshot.setLayoutX((winWidth - ivGlobalSnapshot.getLayoutBounds().getWidth()) / 2);
@@ -581,20 +828,14 @@ public class Main extends Application {
             double dy = minY;
             canvas.getGraphicsContext2D().clearRect(0, 0, winWidth, winHeight);
             canvas.getGraphicsContext2D().drawImage(wiSnapshot, sx, sy, sw, sh, dx, dy, sw, sh);
-
-            if (cancelled) {
-                render(null);
-            } else {
-                render(null, dx, dy, dx + sw, dy + sh);
-            }
-        } else {
-            render(null);
         }
+        render(null);
 
         wiSnapshot = new WritableImage((int) winWidth, (int) winHeight);
 
-        oldX = newX;
-        oldY = newY;
+        // The rest of a fractional move is left for the next one
+        oldX += moveX;
+        oldY += moveY;
     }
 
     /**
@@ -603,7 +844,7 @@ public class Main extends Application {
      */
     private boolean stopTask() {
         if (task != null) {
-            task.cancel();
+            task.cancel(false);
             boolean cancelled = task.isCancelled() || task.getState() == Worker.State.READY;
             task = null;
             return cancelled;
@@ -612,11 +853,12 @@ public class Main extends Application {
     }
 
     /**
-     * Renders the whole image for the current position in parallel mode.
+     * Renders the whole image for the current position in parallel mode,
+     * coarse to fine unless progressive rendering is turned off.
      * @param onDone Runnable to execute when task finishes
      */
     private void render(Runnable onDone) {
-        render(false, true, onDone, 0, 0, 0, 0, false);
+        render(false, true, onDone, 0, 0, 0, 0, false, progressive);
     }
 
     /**
@@ -626,7 +868,8 @@ public class Main extends Application {
      * @param onDone Runnable to execute when task is finished
      */
     private void render(boolean compareMode, boolean parallel, Runnable onDone) {
-        render(compareMode, parallel, onDone, 0, 0, 0, 0, false);
+        // Comparison measures plain renders
+        render(compareMode, parallel, onDone, 0, 0, 0, 0, false, progressive && !compareMode);
     }
 
     /**
@@ -635,21 +878,7 @@ public class Main extends Application {
      * @param onDone Runnable to execute when task is finished
      */
     private void renderFast(Runnable onDone) {
-        render(false, true, onDone, 0, 0, 0, 0, true);
-    }
-
-    /**
-     * Renders the whole image except for a rectangular area 
-     * for the current position in parallel mode
-     * 
-     * @param onDone Runnable to execute when task is finished
-     * @param minX min x coordinate of a rectangular area to be skipped
-     * @param minY min y coordinate of a rectangular area to be skipped
-     * @param maxX max x coordinate of a rectangular area to be skipped
-     * @param maxY max y coordinate of a rectangular area to be skipped
-     */
-    private void render(Runnable onDone, double minX, double minY, double maxX, double maxY) {
-        render(false, true, onDone, minX, minY, maxX, maxY, false);
+        render(false, true, onDone, 0, 0, 0, 0, true, false);
     }
     
     /**
@@ -664,16 +893,56 @@ public class Main extends Application {
      * @param maxX max x coordinate of a rectangular area to be skipped
      * @param maxY max y coordinate of a rectangular area to be skipped
      * @param fast true to disable antialiasing
+     * @param progressive true to render coarse to fine
      */
-    private void render(boolean compareMode, boolean parallel, Runnable onDone, double minX, double minY, double maxX, double maxY, boolean fast) {
+    private void render(boolean compareMode, boolean parallel, Runnable onDone, double minX, double minY, double maxX, double maxY, boolean fast, boolean progressive) {
         // double checking
         stopTask();
+        finishedTask = null;
+
+        // Cached tiles are laid on the grid of pixels of the scale, the 
+        // comparison measures renders without the cache
+        boolean cached = tileCache != null && !fast && !compareMode;
+        if (cached && position.alignToPixelGrid()) {
+            // Pixels moved, counts of the previous image are not at them.
+            // Zooms are snapped to stay aligned, see snapZoomCenter().
+            zoomedFrom = null;
+        }
 
-        task = new MandelbrotSetTask(parallel, wiOffscreen.getPixelWriter(),
+        // Doubles can't tell pixels apart at deeper zoom, so more precise
+        // engines are used there whatever engine is chosen. Other formulas
+        // are only calculated in doubles, the task falls back to scalar.
+        MandelbrotSetRenderer.Engine taskEngine = engine.forScale(position.scale);
+        task = new MandelbrotSetTask(parallel, offscreen,
                 (int) winWidth, (int) winHeight,
                 position.getMinReal(), position.getMinImg(),
                 position.getMaxReal(), position.getMaxImg(),
-                minX, minY, maxX, maxY, fast);
+                minX, minY, maxX, maxY, fast, taskEngine, formula,
+                position.real, position.img, position.scale);
+        task.setPalette(palette, paletteShift);
+        task.setTileSize(tileSize);
+        task.setProgressive(progressive);
+        if (focus != null) {
+            task.setFocus(focus.getX(), focus.getY());
+            if (zoomedFrom != null && focus.getX() == Math.rint(focus.getX())
+                    && focus.getY() == Math.rint(focus.getY())) {
+                task.setZoomedFrom(zoomedFrom, (int) focus.getX(), (int) focus.getY(), zoomedBy);
+            }
+            focus = null;
+        }
+        zoomedFrom = null;
+        lastTask = task;
+        if (cached) {
+            task.setTileCache(tileCache);
+        }
+        // Fast renders are not final, antialiased ones will replace them
+        validPixels = null;
+        if (!fast) {
+            validPixels = keptPixels != null ? keptPixels
+                    : new PixelMask((int) winWidth, (int) winHeight);
+            task.setValidPixels(validPixels);
+        }
+        keptPixels = null;
         if (compareMode) {
             if (parallel) {
                 parallelTask = task;
@@ -681,11 +950,15 @@ public class Main extends Application {
                 sequentialTask = task;
             }
         }
-        new Thread(task, "Task to render MandelbrotSet").start();
-        stageTitle.set("Mandelbrot Set Demo (RENDERING...)");
+        renderService.submit(task);
+        stageTitle.set("Mandelbrot Set Demo (RENDERING WITH " + task.getEngine() + " ENGINE...)");
+        MandelbrotSetTask newTask = task;
         task.setOnSucceeded(t -> {
             stageTitle.set("Mandelbrot Set Demo");
             progress.set(1);
+            if (newTask.coversWholeImage()) {
+                finishedTask = newTask;
+            }
 
             if (onDone != null) {
                 onDone.run();
@@ -706,6 +979,9 @@ public class Main extends Application {
         double maxR = 0.9425352568739851;
         double minI = -1.3061943784663503;
         double maxI = 1.2879652356695286;
+        BigDecimal centerR = null;
+        BigDecimal centerI = null;
+        double scale = 0;
         winWidth = 800.0;
         winHeight = 600.0;
         setPosition(minR, minI, maxR, maxI);
@@ -735,19 +1011,82 @@ public class Main extends Application {
                         minR = Double.parseDouble(minComplex[0]);
                         minI = Double.parseDouble(minComplex[1]);
                         break;
+                    case "-center":
+                        String[] centerComplex = parameters.get(paramPos + 1).split(",");
+                        centerR = new BigDecimal(centerComplex[0]);
+                        centerI = new BigDecimal(centerComplex[1]);
+                        break;
+                    case "-scale":
+                        scale = Double.parseDouble(parameters.get(paramPos + 1));
+                        break;
+                    case "-engine":
+                        engine = MandelbrotSetRenderer.Engine.valueOf(parameters.get(paramPos + 1).toUpperCase(Locale.US));
+                        break;
+                    case "-formula":
+                        formula = FractalFormula.valueOf(parameters.get(paramPos + 1).toUpperCase(Locale.US));
+                        break;
+                    case "-threads":
+                        threads = Integer.parseInt(parameters.get(paramPos + 1));
+                        break;
+                    case "-progressive":
+                        progressive = Boolean.parseBoolean(parameters.get(paramPos + 1));
+                        break;
+                    case "-cacheSize":
+                        cacheSize = Long.parseLong(parameters.get(paramPos + 1));
+                        break;
+                    case "-diskCache":
+                        diskCacheDir = parameters.get(paramPos + 1);
+                        break;
+                    case "-diskCacheSize":
+                        diskCacheSize = Long.parseLong(parameters.get(paramPos + 1));
+                        break;
+                    case "-tileSize":
+                        tileSize = Integer.parseInt(parameters.get(paramPos + 1));
+                        break;
+                    case "-palette":
+                        palette = Palette.valueOf(parameters.get(paramPos + 1).toUpperCase(Locale.US));
+                        break;
                 }
-            } catch (NumberFormatException e) {
+            } catch (IllegalArgumentException e) {
                 System.err.println("Invalid parameters: " + e.getMessage());
                 return;
             }
         }
         
-        Scene scene = new Scene(createContent(minR, minI, maxR, maxI), MandelbrotSetTask.colors[1]);
+        try {
+            renderService = new RenderService(threads, RENDER_PRIORITY);
+            if (diskCacheDir != null) {
+                diskCache = new DiskTileCache(Paths.get(diskCacheDir), diskCacheSize << 20);
+            }
+            tileCache = cacheSize > 0 || diskCache != null ? new TileCache(cacheSize << 20, diskCache) : null;
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid parameters: " + e.getMessage());
+            return;
+        } catch (IOException e) {
+            System.err.println("Failed to open disk tile cache: " + e.getMessage());
+            return;
+        }
+
+        Position target = new Position(minR, minI, maxR, maxI);
+        if (centerR != null && scale > 0) {
+            target = new Position(centerR, centerI, scale);
+        }
+        int background = palette.get(1);
+        Scene scene = new Scene(createContent(target), Color.rgb(
+                (background >> 16) & 0xFF, (background >> 8) & 0xFF, background & 0xFF));
         scene.setOnKeyPressed(t -> {
             if (t.getCode() == KeyCode.I) {
                 printInfo();
             } else if (t.getCode() == KeyCode.R) {
                 rerender();
+            } else if (t.getCode() == KeyCode.E) {
+                switchEngine();
+            } else if (t.getCode() == KeyCode.F) {
+                switchFormula();
+            } else if (t.getCode() == KeyCode.P) {
+                switchPalette();
+            } else if (t.getCode() == KeyCode.C) {
+                cyclingPalette = !cyclingPalette;
             }
         });
 
@@ -781,6 +1120,7 @@ public class Main extends Application {
         parallelTimeBar.set(0);
         sequentialTimeValue.set(0);
         sequentialTimeBar.set(0);
+        speedupValue.set(0);
     }
 
     private void rerender() {
@@ -794,11 +1134,79 @@ public class Main extends Application {
         render(compareMode, parallel, onDone);
     }
 
+    /**
+     * Switches to the next available engine and renders the image again
+     */
+    private void switchEngine() {
+        MandelbrotSetRenderer.Engine[] engines = MandelbrotSetRenderer.Engine.values();
+        do {
+            engine = engines[(engine.ordinal() + 1) % engines.length];
+        } while (!engine.isAvailable());
+        rerender();
+    }
+
+    /**
+     * Switches to the next fractal formula and renders the image again
+     */
+    private void switchFormula() {
+        FractalFormula[] formulas = FractalFormula.values();
+        formula = formulas[(formula.ordinal() + 1) % formulas.length];
+        rerender();
+    }
+
+    /**
+     * Switches to the next palette. The image is colored again from the 
+     * iteration counts of the last task when it rendered the whole image,
+     * and rendered again otherwise.
+     */
+    private void switchPalette() {
+        Palette[] palettes = Palette.values();
+        palette = palettes[(palette.ordinal() + 1) % palettes.length];
+        if (!recolor()) {
+            rerender();
+        }
+    }
+
+    /**
+     * Colors the image again with the current palette and shift without
+     * calculating it.
+     * @return false if there is no finished task to take iteration counts 
+     * from
+     */
+    private boolean recolor() {
+        if (task != null || finishedTask == null) {
+            return false;
+        }
+        finishedTask.recolor(palette, paletteShift);
+        drawOffscreenUpdates(FRAME_UPDATE_BUDGET);
+        return true;
+    }
+
     private void printInfo() {
         System.out.println("Use the following parameters to get to the same position");
         System.out.println("-min " + position.getMinReal() + "," + position.getMinImg());
         System.out.println("-max " + position.getMaxReal() + "," + position.getMaxImg());
+        System.out.println("or, for deep zoom positions");
+        System.out.println("-center " + position.real + "," + position.img);
+        System.out.println("-scale " + position.scale);
         System.out.println("-windowSize " + winWidth + "x" + winHeight + ";");
+        System.out.println("-threads " + threads);
+        System.out.println("-engine " + engine.name().toLowerCase(Locale.US));
+        System.out.println("-formula " + formula.name().toLowerCase(Locale.US));
+        System.out.println("-palette " + palette.name().toLowerCase(Locale.US));
+        System.out.println("-tileSize " + tileSize);
+        System.out.println("-progressive " + progressive);
+        System.out.println("-cacheSize " + cacheSize);
+        if (diskCache != null) {
+            System.out.println("-diskCache " + diskCacheDir);
+            System.out.println("-diskCacheSize " + diskCacheSize);
+        }
+        if (tileCache != null) {
+            System.out.println(tileCache);
+        }
+        if (diskCache != null) {
+            System.out.println(diskCache);
+        }
     }
 
     /**
@@ -807,8 +1215,11 @@ public class Main extends Application {
      */
     @Override public void stop() throws Exception {
         super.stop();
-        if (task != null) {
-            task.cancel(true);
+        if (renderService != null) {
+            renderService.shutdown();
+        }
+        if (diskCache != null) {
+            diskCache.close();
         }
     }
 
@@ -822,8 +1233,11 @@ public class Main extends Application {
     }
 
     private void flyToPosition(double minR, double minI, double maxR, double maxI) {
+        flyToPosition(new Position(minR, minI, maxR, maxI));
+    }
+
+    private void flyToPosition(Position to) {
         Position from = new Position(position);
-        Position to = new Position(minR, minI, maxR, maxI);
         if (!from.equals(to)) {
             flyingAnimation = new FlyingAnimation(from, to);
             flyingAnimation.start();
@@ -840,9 +1254,11 @@ public class Main extends Application {
     private class Position {
 
         /**
-         * Real and imaginary coordinates of the center of the window
+         * Real and imaginary coordinates of the center of the window. They
+         * are kept with arbitrary precision so that deep zoom positions 
+         * don't lose the digits doubles can't hold.
          */
-        double real, img;
+        BigDecimal real, img;
 
         /**
          * Scale of the fractal in terms of real/imaginary value change per 1 px
@@ -858,14 +1274,18 @@ public class Main extends Application {
          * @param maxI
          */
         public Position(double minR, double minI, double maxR, double maxI) {
-            real = (minR + maxR) / 2;
-            img = (minI + maxI) / 2;
+            real = new BigDecimal((minR + maxR) / 2);
+            img = new BigDecimal((minI + maxI) / 2);
             double scaleR = (maxR - minR) / winWidth;
             double scaleI = (maxI - minI) / winHeight;
             scale = Math.max(scaleR, scaleI);
         }
 
         public Position(double real, double img, double scale) {
+            this(new BigDecimal(real), new BigDecimal(img), scale);
+        }
+
+        public Position(BigDecimal real, BigDecimal img, double scale) {
             this.real = real;
             this.img = img;
             this.scale = scale;
@@ -884,25 +1304,85 @@ public class Main extends Application {
             return this;
         }
 
+        /**
+         * @return real coordinate of the center rounded to double
+         */
+        private double getReal() {
+            return real.doubleValue();
+        }
+
+        /**
+         * @return imaginary coordinate of the center rounded to double
+         */
+        private double getImg() {
+            return img.doubleValue();
+        }
+
+        /**
+         * Sets the center to the given coordinates
+         * @param real real coordinate of the center
+         * @param img imaginary coordinate of the center
+         */
+        private void setCenter(double real, double img) {
+            this.real = new BigDecimal(real);
+            this.img = new BigDecimal(img);
+        }
+
+        /**
+         * Moves the center by given offsets without losing precision
+         * @param realMove real offset
+         * @param imgMove imaginary offset
+         */
+        private void move(double realMove, double imgMove) {
+            // Keep 20 digits more than needed to tell pixels apart
+            MathContext mc = new MathContext(Math.max(34, 20 - (int) Math.floor(Math.log10(scale))));
+            real = real.add(new BigDecimal(realMove), mc);
+            img = img.add(new BigDecimal(imgMove), mc);
+        }
+
+        /**
+         * Moves the center by less than half a pixel so that pixels fall on
+         * the grid of pixels of the scale anchored at zero, which tiles of
+         * the {@link TileCache} are laid on. Not done at deep zoom where the
+         * grid coordinates don't fit doubles.
+         * @return true if the center moved by more than the tolerance of
+         * the grid, a smaller move is a rounding error of zooming
+         */
+        private boolean alignToPixelGrid() {
+            if (scale < MandelbrotSetRenderer.MEDIUM_ZOOM_SCALE) {
+                return false;
+            }
+            double gridX = getMinReal() / scale;
+            double gridY = getMinImg() / scale;
+            double dx = Math.rint(gridX) - gridX;
+            double dy = Math.rint(gridY) - gridY;
+            if (Math.abs(dx) < 1e-6 && Math.abs(dy) < 1e-6) {
+                return false;
+            }
+            move(dx * scale, dy * scale);
+            return Math.abs(dx) > MandelbrotSetRenderer.GRID_TOLERANCE
+                    || Math.abs(dy) > MandelbrotSetRenderer.GRID_TOLERANCE;
+        }
+
         /**
          * @return real value corresponding to the left side of the viewport
          */
         private double getMinReal() {
-            return real - scale * winWidth / 2;
+            return getReal() - scale * winWidth / 2;
         }
 
         /**
          * @return real value corresponding to the right side of the viewport
          */
         private double getMaxReal() {
-            return real + scale * winWidth / 2;
+            return getReal() + scale * winWidth / 2;
         }
 
         /**
          * @return imaginary value corresponding to the top side of the viewport
          */
         private double getMinImg() {
-            return img - scale * winHeight / 2;
+            return getImg() - scale * winHeight / 2;
         }
 
         /**
@@ -910,7 +1390,7 @@ public class Main extends Application {
          * viewport
          */
         private double getMaxImg() {
-            return img + scale * winHeight / 2;
+            return getImg() + scale * winHeight / 2;
         }
 
         @Override
@@ -921,8 +1401,8 @@ public class Main extends Application {
         @Override
         public int hashCode() {
             int hash = 5;
-            hash = 59 * hash + (int) (Double.doubleToLongBits(this.real) ^ (Double.doubleToLongBits(this.real) >>> 32));
-            hash = 59 * hash + (int) (Double.doubleToLongBits(this.img) ^ (Double.doubleToLongBits(this.img) >>> 32));
+            hash = 59 * hash + real.stripTrailingZeros().hashCode();
+            hash = 59 * hash + img.stripTrailingZeros().hashCode();
             hash = 59 * hash + (int) (Double.doubleToLongBits(this.scale) ^ (Double.doubleToLongBits(this.scale) >>> 32));
             return hash;
         }
@@ -936,10 +1416,10 @@ public class Main extends Application {
                 return false;
             }
             final Position other = (Position) obj;
-            if (Double.doubleToLongBits(this.real) != Double.doubleToLongBits(other.real)) {
+            if (this.real.compareTo(other.real) != 0) {
                 return false;
             }
-            if (Double.doubleToLongBits(this.img) != Double.doubleToLongBits(other.img)) {
+            if (this.img.compareTo(other.img) != 0) {
                 return false;
             }
             if (Double.doubleToLongBits(this.scale) != Double.doubleToLongBits(other.scale)) {
@@ -968,6 +1448,30 @@ public class Main extends Application {
         }
     }
 
+    /**
+     * Label of the parallel time bar, shows how many times parallel
+     * calculation was faster than sequential one and on how many threads
+     */
+    private class SpeedupToStringBinding extends StringBinding {
+
+        private final DoubleProperty speedupValue;
+
+        public SpeedupToStringBinding(DoubleProperty speedupValue) {
+            this.speedupValue = speedupValue;
+            bind(speedupValue);
+        }
+
+        @Override
+        protected String computeValue() {
+            double speedup = speedupValue.get();
+            if (speedup <= 0) {
+                return "Parallel";
+            }
+            return String.format(Locale.US, "Parallel %.1fx on %d threads", speedup,
+                    renderService.getParallelism());
+        }
+    }
+
     private class FlyingAnimation extends AnimationTimer {
 
         private final Position from;
@@ -1030,7 +1534,7 @@ public class Main extends Application {
             canvas.setTranslateY(0);
             canvas.setScaleX(1);
             canvas.setScaleY(1);
-            canvas.snapshot(snapshotParameters, wiSnapshot);
+            snapshotCanvas();
             canvas.getGraphicsContext2D().clearRect(0, 0, winWidth, winHeight);
 
             int canvasIndex = rootPane.getChildren().indexOf(canvas);
@@ -1052,8 +1556,7 @@ public class Main extends Application {
             }
 
             solveXfromY(position.scale);
-            position.real = real;
-            position.img = img;
+            position.setCenter(real, img);
             renderFast(() -> {
                 canvas.setOpacity(1);
             });
@@ -1130,16 +1633,16 @@ public class Main extends Application {
 
             solveXfromY(s);
 
-            canvas.setTranslateX((position.real - real) / s);
-            canvas.setTranslateY((position.img - img) / s);
+            canvas.setTranslateX((position.getReal() - real) / s);
+            canvas.setTranslateY((position.getImg() - img) / s);
             canvas.setScaleX(position.scale / s);
             canvas.setScaleY(position.scale / s);
-            ivGlobalSnapshot.setTranslateX((global.real - real) / s);
-            ivGlobalSnapshot.setTranslateY((global.img - img) / s);
+            ivGlobalSnapshot.setTranslateX((global.getReal() - real) / s);
+            ivGlobalSnapshot.setTranslateY((global.getImg() - img) / s);
             ivGlobalSnapshot.setScaleX(global.scale / s);
             ivGlobalSnapshot.setScaleY(global.scale / s);
-            ivCanvasSnapshot.setTranslateX((snapshotPos.real - real) / s);
-            ivCanvasSnapshot.setTranslateY((snapshotPos.img - img) / s);
+            ivCanvasSnapshot.setTranslateX((snapshotPos.getReal() - real) / s);
+            ivCanvasSnapshot.setTranslateY((snapshotPos.getImg() - img) / s);
             ivCanvasSnapshot.setScaleX(snapshotPos.scale / s);
             ivCanvasSnapshot.setScaleY(snapshotPos.scale / s);
 
@@ -1153,8 +1656,8 @@ public class Main extends Application {
             double x = 2 * t * (1 - t) * p1x + t * t * p2x;
 
             // animated position
-            real = from.real * (1 - x) + to.real * x;
-            img = from.img * (1 - x) + to.img * x;
+            real = from.getReal() * (1 - x) + to.getReal() * x;
+            img = from.getImg() * (1 - x) + to.getImg() * x;
         }
 
         public void abort() {
@@ -1194,7 +1697,7 @@ public class Main extends Application {
             canvas.setTranslateY(0);
             canvas.setScaleX(1);
             canvas.setScaleY(1);
-            canvas.snapshot(snapshotParameters, wiSnapshot);
+            snapshotCanvas();
             canvas.getGraphicsContext2D().clearRect(0, 0, winWidth, winHeight);
             position = to;
             render(() -> {
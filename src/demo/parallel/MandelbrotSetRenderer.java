@@ -0,0 +1,1744 @@
+/*
+ * Copyright (c) 2013, 2014, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of Oracle nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package demo.parallel;
+
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+
+/**
+ * Renders Mandelbrot set using given parameters. See {@link 
+ * #MandelbrotSetRenderer(boolean, demo.parallel.OffscreenImage, int, int, 
+ * double, double, double, double, double, double, double, double, boolean,
+ * demo.parallel.MandelbrotSetRenderer.Engine, demo.parallel.FractalFormula,
+ * java.math.BigDecimal, 
+ * java.math.BigDecimal, double) 
+ * constructor} for parameters list. {@link #render()} returns time in 
+ * milliseconds.
+ * <p>
+ * The renderer doesn't depend on JavaFX, so it also runs on headless 
+ * machines, see {@link BatchRenderer}. {@link MandelbrotSetTask} runs it as 
+ * a JavaFX task. It may be cancelled from any thread and reports progress 
+ * to a {@link ProgressListener}.
+ * <p>
+ * Calculation and coloring are separate stages: raw iteration counts of all
+ * samples are kept in a buffer and colored with a {@link Palette}, so a
+ * finished image can be colored again with another palette by
+ * {@link #recolor(demo.parallel.Palette, int)} without calculating anything.
+ * 
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ * 
+ * @author Alexander Kouznetsov, Tristan Yan
+ */
+public class MandelbrotSetRenderer {
+    
+    /**
+     * Calculation times, deliberately choose it as 256 because we will use the
+     * count to calculate Color
+     */
+    static final int CAL_MAX_COUNT = 256;
+
+    /**
+     * This is the square of max radius, Mandelbrot set contained in the closed
+     * disk of radius 2 around the origin plus some area around, so 
+     * LENGTH_BOUNDARY is 6.
+     */
+    static final double LENGTH_BOUNDARY = 6d;
+
+    /**
+     * For antialiasing we break each pixel into 3x3 grid and interpolate 
+     * between values calculated on those grid positions
+     */
+    private static final int ANTIALIASING_BASE = 3;
+    
+    /**
+     * Number of samples per antialiased pixel
+     */
+    private static final int SAMPLES = ANTIALIASING_BASE * ANTIALIASING_BASE;
+    
+    /**
+     * Engines available to calculate iteration counts
+     */
+    enum Engine {
+        
+        /**
+         * Pixel by pixel calculation with {@link #calc(double, double)}
+         */
+        SCALAR,
+        
+        /**
+         * Several pixels of a line at once with {@link VectorKernel}, one 
+         * pixel per vector lane
+         */
+        VECTOR,
+        
+        /**
+         * Whole line at once with {@link #calcBulk(double[], double, int[], int)}:
+         * still active pixels are iterated together in a {@link ComplexArray}
+         */
+        BULK,
+        
+        /**
+         * Mariani-Silver subdivision: only the border of a rectangle is 
+         * calculated, the rectangle is filled when the border has the same
+         * iteration count everywhere and subdivided otherwise
+         */
+        MARIANI_SILVER,
+        
+        /**
+         * Deep zoom: pixels are calculated as double precision differences
+         * from a reference orbit of arbitrary precision, see
+         * {@link PerturbationKernel}
+         */
+        PERTURBATION,
+        
+        /**
+         * Medium zoom: pixel by pixel calculation in double-double precision
+         * with {@link #calcDoubleDouble(double, double, double, double)}
+         */
+        DOUBLE_DOUBLE;
+
+        /**
+         * Vector API is an incubator module and is only present when the
+         * application is launched with 
+         * {@code --add-modules jdk.incubator.vector}
+         */
+        private static final boolean VECTOR_MODULE_PRESENT = ModuleLayer.boot()
+                .findModule("jdk.incubator.vector").isPresent();
+
+        /**
+         * @return true if this engine can be used in the current JVM
+         */
+        boolean isAvailable() {
+            return this != VECTOR || VECTOR_MODULE_PRESENT;
+        }
+
+        /**
+         * @param formula fractal formula
+         * @return true if this engine can calculate the given formula, 
+         * engines with their own kernels only know the Mandelbrot formula
+         */
+        boolean supports(FractalFormula formula) {
+            return this == SCALAR || this == MARIANI_SILVER
+                    || formula == FractalFormula.MANDELBROT;
+        }
+
+        /**
+         * Doubles can't tell pixels apart at deeper zoom, so more precise
+         * engines are used there whatever engine is chosen.
+         * @param scale size of a pixel in the complex plane
+         * @return engine to calculate at the given scale
+         */
+        Engine forScale(double scale) {
+            if (scale < DEEP_ZOOM_SCALE) {
+                return PERTURBATION;
+            }
+            if (scale < MEDIUM_ZOOM_SCALE) {
+                return DOUBLE_DOUBLE;
+            }
+            return this;
+        }
+
+        /**
+         * @return true if this engine calculates in doubles, counts of such
+         * engines are the same for the same points
+         */
+        boolean calculatesInDoubles() {
+            return this != PERTURBATION && this != DOUBLE_DOUBLE;
+        }
+    }
+
+    /**
+     * Scale below which the {@link Engine#DOUBLE_DOUBLE} engine is used, 
+     * pixels are about 100 ulps of a double apart here
+     */
+    static final double MEDIUM_ZOOM_SCALE = 1e-14;
+
+    /**
+     * Scale below which the {@link Engine#PERTURBATION} engine is used, 
+     * double-double precision is not enough here
+     */
+    static final double DEEP_ZOOM_SCALE = 1e-30;
+    
+    /**
+     * Rectangles with a side not larger than this are calculated pixel by
+     * pixel by the {@link Engine#MARIANI_SILVER} engine
+     */
+    private static final int SUBDIVISION_MIN_SIZE = 8;
+
+    /**
+     * Distance between pixels calculated by the first pass of progressive
+     * rendering, every next pass halves it
+     */
+    static final int PROGRESSIVE_STEP = 8;
+
+    /**
+     * Max distance in pixels of the image from the grid of the 
+     * {@link TileCache} for the image to be considered aligned to it
+     */
+    static final double GRID_TOLERANCE = 1e-3;
+
+    /**
+     * Max grid coordinate of an image using the {@link TileCache}, grid 
+     * coordinates of pixels have to be exact in doubles
+     */
+    private static final double MAX_GRID_INDEX = 1L << 50;
+    
+    /**
+     * Sequential vs. parallel calculation mode
+     */
+    private final boolean parallel;
+    
+    /**
+     * Antialiased mode flag
+     */
+    private final boolean antialiased;
+    
+    /**
+     * Engine actually used for calculations
+     */
+    private final Engine engine;
+    
+    /**
+     * Fractal formula to calculate
+     */
+    private final FractalFormula formula;
+    
+    /**
+     * Dimension of the area
+     */
+    private final int width, height;
+    
+    /**
+     * Rectangle range to exclude from calculations. Used to skip calculations
+     * for parts of MandelbrotSet that are already calculated.
+     */
+    private final double minX, minY, maxX, maxY;
+    
+    /**
+     * Real and imaginary part of min and max number in the set we need
+     * calculate
+     */
+    private final double minR, minI, maxR, maxI;
+    
+    /**
+     * Center of the area with arbitrary precision and size of a pixel, used
+     * by the {@link Engine#PERTURBATION} engine
+     */
+    private final BigDecimal centerR, centerI;
+    private final double scale;
+    
+    /**
+     * Center of the area in double-double precision as high and low parts,
+     * used by the {@link Engine#DOUBLE_DOUBLE} engine
+     */
+    private final double centerReHi, centerReLo, centerImHi, centerImLo;
+    
+    /**
+     * Kernel of the {@link Engine#PERTURBATION} engine, null for other 
+     * engines
+     */
+    private PerturbationKernel perturbation;
+    
+    /**
+     * Image to write calculated pixels to
+     */
+    private final OffscreenImage image;
+    
+    /**
+     * Flag indicating that some new pixels were calculated
+     */
+    private volatile boolean hasUpdates;
+    
+    /**
+     * Start time of rendering in milliseconds
+     */
+    private volatile long startTime = -1;
+    
+    /**
+     * Total time of rendering in milliseconds
+     */
+    private volatile long taskTime = -1;
+    
+    /**
+     * Progress of rendering
+     */
+    private final AtomicInteger progress = new AtomicInteger(0);
+
+    /**
+     * Receives progress, null if there is none
+     */
+    private volatile ProgressListener progressListener;
+
+    /**
+     * Set when rendering is to be stopped
+     */
+    private volatile boolean cancelled;
+    
+    /**
+     * Iteration counts at pixel centers already calculated by the 
+     * {@link Engine#MARIANI_SILVER} engine, 0 for pixels not calculated yet
+     */
+    private int[] counts;
+    
+    /**
+     * Number of samples per pixel, 1 when not antialiased
+     */
+    private final int samples;
+    
+    /**
+     * Raw iteration counts of all samples of the image, {@link #samples} 
+     * per pixel line by line, 0 for samples not calculated
+     */
+    private final int[] iterations;
+
+    /**
+     * Number of samples calculated by the kernels
+     */
+    private final LongAdder calculatedSamples = new LongAdder();
+    
+    /**
+     * Palette to color iteration counts with and number of entries it is 
+     * rotated by
+     */
+    private volatile Palette palette = Palette.CLASSIC;
+    private volatile int paletteShift;
+    
+    /**
+     * Width and height of tiles the image is split into for parallel 
+     * calculation, 0 to split it into lines
+     */
+    private int tileSize = TileScheduler.DEFAULT_TILE_SIZE;
+
+    /**
+     * Progressive mode flag, see {@link #setProgressive(boolean)}
+     */
+    private boolean progressive;
+
+    /**
+     * Point of the image tiles are calculated outward from
+     */
+    private double focusX, focusY;
+
+    /**
+     * Pixels showing final results, see 
+     * {@link #setValidPixels(demo.parallel.PixelMask)}, null when not 
+     * tracked
+     */
+    private PixelMask validPixels;
+
+    /**
+     * Whether some pixels were kept from a previous image
+     */
+    private boolean keepsPixels;
+
+    /**
+     * Renderer to take iteration counts of the same points from, see
+     * {@link #setZoomedFrom(demo.parallel.MandelbrotSetRenderer, int, int, double)},
+     * null when nothing is taken
+     */
+    private MandelbrotSetRenderer zoomedFrom;
+
+    /**
+     * Zoom center in whole pixels and ratio of the previous pixel size to
+     * the new one or the other way round, whichever is a whole number
+     */
+    private int zoomX, zoomY, zoomRatio;
+    private boolean zoomOut;
+
+    /**
+     * Cache to take iteration counts from and store them to, null if not
+     * used
+     */
+    private TileCache tileCache;
+
+    /**
+     * Creates a renderer of a MandelBrot set into an image using given
+     * OffscreenImage with given dimensions of the image, given real and imaginary
+     * values range and given rectangular area to skip. Also there is a switch
+     * that disables more computational-extensive antialiasing mode.
+     * @param parallel parallel vs. sequential switch
+     * @param image target to write pixels to
+     * @param width width of the image area
+     * @param height height of the image area
+     * @param minR min real value of the area
+     * @param minI min imaginary value of the area
+     * @param maxR max real value of the area
+     * @param maxI max imaginary value of the area
+     * @param minX min x value of the rectangular area to skip
+     * @param minY min y value of the rectangular area to skip
+     * @param maxX max x value of the rectangular area to skip
+     * @param maxY max y value of the rectangular area to skip
+     * @param fast fast mode disables antialiasing
+     * @param engine engine to calculate with, scalar engine is used instead
+     * if the given one is not available or doesn't support the formula
+     * @param formula fractal formula to calculate
+     * @param centerR real value of the area center with full precision
+     * @param centerI imaginary value of the area center with full precision
+     * @param scale size of a pixel in the complex plane
+     */
+    public MandelbrotSetRenderer(boolean parallel, OffscreenImage image, int width, int height, double minR, double minI, double maxR, double maxI, double minX, double minY, double maxX, double maxY, boolean fast, Engine engine, FractalFormula formula, BigDecimal centerR, BigDecimal centerI, double scale) {
+        this.parallel = parallel;
+        this.image = image;
+        this.width = width;
+        this.height = height;
+        this.maxX = maxX;
+        this.minX = minX;
+        this.maxY = maxY;
+        this.minY = minY;
+        this.minR = minR;
+        this.maxR = maxR;
+        this.minI = minI;
+        this.maxI = maxI;
+        this.antialiased = !fast;
+        this.formula = formula;
+        this.samples = antialiased ? SAMPLES : 1;
+        this.iterations = new int[width * height * samples];
+        this.engine = engine.isAvailable() && engine.supports(formula) ? engine : Engine.SCALAR;
+        this.centerR = centerR;
+        this.centerI = centerI;
+        this.scale = scale;
+        DoubleDoubleComplex center = new DoubleDoubleComplex(centerR, centerI);
+        this.centerReHi = center.getReHi();
+        this.centerReLo = center.getReLo();
+        this.centerImHi = center.getImHi();
+        this.centerImLo = center.getImLo();
+        this.focusX = width / 2d;
+        this.focusY = height / 2d;
+    }
+
+    /**
+     * Receives progress of rendering, called concurrently by worker threads
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param done amount of work done
+         * @param total total amount of work
+         */
+        void update(long done, long total);
+    }
+
+    /**
+     * Sets the receiver of progress, must be called before rendering is
+     * started.
+     * @param progressListener listener, null if there is none
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Stops rendering at the next line or tile boundary, samples calculated
+     * so far are kept.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if rendering was cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 
+     * @return whether new pixels were written to the image
+     */
+    public boolean hasUpdates() {
+        return hasUpdates;
+    }
+
+    /**
+     * @return true if the renderer is parallel
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * @return fractal formula calculated by this renderer
+     */
+    public FractalFormula getFormula() {
+        return formula;
+    }
+
+    /**
+     * @return palette the image is currently colored with
+     */
+    public Palette getPalette() {
+        return palette;
+    }
+
+    /**
+     * @return true if the renderer calculates every pixel of the image, i.e. 
+     * there is no area to skip
+     */
+    public boolean coversWholeImage() {
+        if (keepsPixels) {
+            return false;
+        }
+        return Math.max(0, Math.ceil(minX)) >= Math.min(width, Math.ceil(maxX))
+                || Math.max(0, Math.ceil(minY)) >= Math.min(height, Math.ceil(maxY));
+    }
+
+    /**
+     * Sets palette for pixels colored from now on, usually called before
+     * rendering is started.
+     * @param palette palette to color the image with
+     * @param shift number of palette entries to rotate the palette by
+     */
+    public void setPalette(Palette palette, int shift) {
+        this.palette = palette;
+        this.paletteShift = shift;
+    }
+
+    /**
+     * Sets size of tiles the image is split into, must be called before
+     * rendering is started. Not used by the {@link Engine#MARIANI_SILVER} engine
+     * which splits the image by itself.
+     * @param tileSize width and height of a tile, 0 to split the image into
+     * lines
+     */
+    public void setTileSize(int tileSize) {
+        if (tileSize < 0) {
+            throw new IllegalArgumentException("Negative tile size " + tileSize);
+        }
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Sets the point tiles are calculated outward from, the center of the 
+     * image by default. Must be called before rendering is started.
+     * @param x x coordinate of the point in the image
+     * @param y y coordinate of the point in the image
+     */
+    public void setFocus(double x, double y) {
+        this.focusX = x;
+        this.focusY = y;
+    }
+
+    /**
+     * Sets the mask of valid pixels, must be called before rendering is
+     * started. Pixels set in the mask are kept from the previous image like
+     * the ones in the rectangular area to skip. Pixels the renderer finishes 
+     * are set in the mask as they are written, so after rendering is 
+     * cancelled it tells which pixels are done. Preview blocks of 
+     * progressive rendering are not final and are not set.
+     * @param validPixels mask of the size of the image
+     */
+    public void setValidPixels(PixelMask validPixels) {
+        if (validPixels.getWidth() != width || validPixels.getHeight() != height) {
+            throw new IllegalArgumentException("Mask size " + validPixels.getWidth() + "x" 
+                    + validPixels.getHeight() + " differs from image size " + width + "x" + height);
+        }
+        this.validPixels = validPixels;
+        this.keepsPixels = !validPixels.isEmpty();
+    }
+
+    /**
+     * Takes iteration counts of samples falling on the same points of the 
+     * complex plane from a renderer which rendered the image before zooming, 
+     * so they are not calculated again. Must be called before rendering is
+     * started. Counts are only taken when the zoom center is a whole pixel,
+     * the zoom ratio or its inverse is a whole number and both images have
+     * the same size and are calculated with the same precision. Counts 
+     * guessed by the {@link Engine#MARIANI_SILVER} engine are only taken by
+     * the same engine. Zooming in 2x takes a quarter of the samples, zooming
+     * out 2x takes all samples of the quarter of the image the previous one
+     * shrinks to.
+     * @param previous renderer which rendered the image before zooming, may be
+     * still running or cancelled, samples it didn't calculate are 
+     * calculated by this renderer
+     * @param x x coordinate of the zoom center, the point which stays in 
+     * place
+     * @param y y coordinate of the zoom center
+     * @param byScale new pixel size divided by the previous one
+     * @return true if counts will be taken
+     */
+    public boolean setZoomedFrom(MandelbrotSetRenderer previous, int x, int y, double byScale) {
+        boolean out = byScale >= 1;
+        double ratio = out ? byScale : 1 / byScale;
+        if (previous.samples != samples || previous.formula != formula
+                || previous.width != width || previous.height != height
+                || ratio != Math.rint(ratio)) {
+            return false;
+        }
+        // Counts of doubles and of more precise engines differ near the set
+        boolean doubles = engine.calculatesInDoubles();
+        if (previous.engine.calculatesInDoubles() != doubles || !doubles && previous.engine != engine) {
+            return false;
+        }
+        // Mariani-Silver guesses counts of rectangles, other engines would
+        // take them as exact
+        if (previous.engine == Engine.MARIANI_SILVER && engine != Engine.MARIANI_SILVER) {
+            return false;
+        }
+        zoomedFrom = previous;
+        zoomX = x;
+        zoomY = y;
+        zoomRatio = (int) ratio;
+        zoomOut = out;
+        return true;
+    }
+
+    /**
+     * Sets the cache of iteration counts, must be called before rendering is
+     * started. Samples found in the cache are not calculated, all samples
+     * the renderer calculated are stored to the cache when it finishes, also 
+     * when it is cancelled. The cache is only used when the image is 
+     * aligned to the grid of its scale, see {@link TileCache}, and is 
+     * calculated in doubles. Not used by the {@link Engine#MARIANI_SILVER}
+     * engine whose guessed counts would be taken as exact by other engines.
+     * @param tileCache cache of iteration counts
+     */
+    public void setTileCache(TileCache tileCache) {
+        this.tileCache = tileCache;
+    }
+
+    /**
+     * Turns progressive rendering on or off, must be called before rendering
+     * is started. In progressive mode the image is first calculated at 
+     * every {@value #PROGRESSIVE_STEP}th pixel drawn as blocks, then at every
+     * 4th, 2nd and finally at every pixel. Samples calculated by a pass are
+     * kept and not calculated again by the next ones, so the total work is 
+     * the same. Coarse passes only calculate the central sample of a pixel,
+     * the other samples of an antialiased pixel are calculated by the last
+     * pass. Not used by the {@link Engine#MARIANI_SILVER} engine which 
+     * refines the image by itself.
+     * @param progressive true to render coarse to fine
+     */
+    public void setProgressive(boolean progressive) {
+        this.progressive = progressive;
+    }
+
+    /**
+     * Colors the image again from the raw iteration counts, in parallel. 
+     * Nothing is calculated, so this is fast enough to be done every frame,
+     * e.g. for palette cycling. Must be called after rendering finished.
+     * @param palette palette to color the image with
+     * @param shift number of palette entries to rotate the palette by
+     * @throws IllegalStateException if rendering hasn't finished or was
+     * cancelled
+     */
+    public void recolor(Palette palette, int shift) {
+        if (taskTime == -1 || cancelled) {
+            throw new IllegalStateException("Rendering is not finished");
+        }
+        setPalette(palette, shift);
+        IntStream.range(0, height).parallel().forEach((int y) -> 
+                writePixels(0, y, width, 1, colorBlock(0, y, width, y + 1)));
+    }
+
+    /**
+     * @return engine used by this renderer, may differ from the requested one
+     * when it is not available
+     */
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Clears the updates flag
+     */
+    public void clearHasUpdates() {
+        hasUpdates = false;
+    }
+
+    /**
+     * Returns current rendering time while rendering is running and total 
+     * rendering time when it is finished
+     * @return rendering time in milliseconds
+     */
+    public long getTime() {
+        if (taskTime != -1) {
+            return taskTime;
+        }
+        if (startTime == -1) {
+            return 0;
+        }
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * @return number of samples calculated per pixel
+     */
+    public int getSamples() {
+        return samples;
+    }
+
+    /**
+     * Returns the sum of iteration counts of all samples calculated so far,
+     * counts of points found inside of the set without iterating included.
+     * @return total number of iterations
+     */
+    public long getIterationCount() {
+        long total = 0;
+        for (int count : iterations) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of samples calculated by the kernels so far.
+     * Samples taken from a previous image or from the cache are not
+     * included, neither are pixel centers of the
+     * {@link Engine#MARIANI_SILVER} engine.
+     * @return number of calculated samples
+     */
+    long getCalculatedSamples() {
+        return calculatedSamples.sum();
+    }
+
+    /**
+     * Passes progress to the listener, if any.
+     */
+    private void updateProgress(long done, long total) {
+        ProgressListener listener = progressListener;
+        if (listener != null) {
+            listener.update(done, total);
+        }
+    }
+
+    /**
+     * Renders the image on the calling thread, parts of it are calculated
+     * by other workers of the fork/join pool the thread belongs to when the
+     * renderer is parallel.
+     * @return time of rendering in milliseconds
+     */
+    public long render() {
+        // Prepares an image 
+        image.clear();
+        startTime = System.currentTimeMillis();
+        
+        if (zoomedFrom != null) {
+            takeZoomedCounts(zoomedFrom);
+            // The previous renderer may be collected now
+            zoomedFrom = null;
+        }
+        long[] origin = getGridOrigin();
+        if (origin != null) {
+            takeCachedCounts(origin[0], origin[1]);
+        }
+        try {
+            calcAll();
+        } finally {
+            if (origin != null) {
+                cacheCounts(origin[0], origin[1]);
+            }
+        }
+        taskTime = getTime();
+        return taskTime;
+    }
+
+    /**
+     * Calculates the image with the engine of this renderer.
+     */
+    private void calcAll() {
+        if (engine == Engine.PERTURBATION) {
+            // Reference orbit is calculated here, on the rendering thread
+            perturbation = new PerturbationKernel(centerR, centerI, scale, width, height);
+        }
+        if (engine == Engine.MARIANI_SILVER) {
+            counts = new int[width * height];
+            // Central samples taken from the previous image are the counts
+            // at pixel centers, they are not calculated again
+            int center = samples / 2;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = iterations[i * samples + center];
+            }
+            updateProgress(0, (long) width * height);
+            Subdivision whole = new Subdivision(0, 0, width, height);
+            if (parallel) {
+                RenderService.invoke(whole);
+            } else {
+                whole.compute();
+            }
+            return;
+        }
+        
+        // We do tiles (or horizontal lines) in parallel when asked
+        TileScheduler scheduler = new TileScheduler(width, height, tileSize, focusX, focusY);
+        int passes = progressive ? Integer.numberOfTrailingZeros(PROGRESSIVE_STEP) + 1 : 1;
+        int total = scheduler.getTileCount() * passes;
+        updateProgress(0, total);
+        for (int pass = 1; pass < passes && !isCancelled(); pass++) {
+            int step = PROGRESSIVE_STEP >> (pass - 1);
+            scheduler.run(parallel, (x0, y0, x1, y1) -> {
+                for (int y = (y0 + step - 1) / step * step; y < y1; y += step) {
+                    calcPreviewLine(y, x0, x1, step);
+                    if (isCancelled()) {
+                        return;
+                    }
+                }
+                updateProgress(progress.incrementAndGet(), total);
+            });
+        }
+        if (!isCancelled()) {
+            scheduler.run(parallel, (x0, y0, x1, y1) -> {
+                // We do pixels in horizontal lines always sequentially
+                for (int y = y0; y < y1; y++) {
+                    calcLine(y, x0, x1);
+                    if (isCancelled()) {
+                        return;
+                    }
+                }
+                updateProgress(progress.incrementAndGet(), total);
+            });
+        }
+    }
+
+    /**
+     * Returns position of the image on the grid of the {@link TileCache}.
+     * @return grid coordinates of the top left pixel, null if the cache is
+     * not used or the image is not aligned to the grid
+     */
+    private long[] getGridOrigin() {
+        // Mariani-Silver fills rectangles with guessed counts, cached they
+        // would be taken as exact by the other engines
+        if (tileCache == null || engine == Engine.PERTURBATION || engine == Engine.DOUBLE_DOUBLE
+                || engine == Engine.MARIANI_SILVER) {
+            return null;
+        }
+        double gridX = minR / scale;
+        double gridY = minI / scale;
+        double originX = Math.rint(gridX);
+        double originY = Math.rint(gridY);
+        if (Math.abs(gridX - originX) > GRID_TOLERANCE || Math.abs(gridY - originY) > GRID_TOLERANCE
+                || Math.abs((maxR - minR) / width / scale - 1) > GRID_TOLERANCE / width
+                || Math.abs(originX) > MAX_GRID_INDEX || Math.abs(originY) > MAX_GRID_INDEX) {
+            return null;
+        }
+        return new long[] {(long) originX, (long) originY};
+    }
+
+    /**
+     * Takes samples which are not calculated yet from the cached tiles the
+     * image overlaps.
+     * @param originX grid x coordinate of the top left pixel
+     * @param originY grid y coordinate of the top left pixel
+     */
+    private void takeCachedCounts(long originX, long originY) {
+        int size = TileCache.TILE_SIZE;
+        for (long ty = Math.floorDiv(originY, size); ty <= Math.floorDiv(originY + height - 1, size); ty++) {
+            for (long tx = Math.floorDiv(originX, size); tx <= Math.floorDiv(originX + width - 1, size); tx++) {
+                int[] cached = tileCache.get(tileKey(tx, ty));
+                if (cached == null) {
+                    continue;
+                }
+                int x0 = (int) (tx * size - originX);
+                int y0 = (int) (ty * size - originY);
+                for (int y = Math.max(0, y0); y < Math.min(height, y0 + size); y++) {
+                    for (int x = Math.max(0, x0); x < Math.min(width, x0 + size); x++) {
+                        int from = ((y - y0) * size + x - x0) * samples;
+                        int to = (y * width + x) * samples;
+                        for (int sample = 0; sample < samples; sample++) {
+                            if (iterations[to + sample] == 0) {
+                                iterations[to + sample] = cached[from + sample];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores calculated samples of the tiles the image overlaps to the 
+     * cache. Samples outside of the image or not calculated are 0.
+     * @param originX grid x coordinate of the top left pixel
+     * @param originY grid y coordinate of the top left pixel
+     */
+    private void cacheCounts(long originX, long originY) {
+        int size = TileCache.TILE_SIZE;
+        for (long ty = Math.floorDiv(originY, size); ty <= Math.floorDiv(originY + height - 1, size); ty++) {
+            for (long tx = Math.floorDiv(originX, size); tx <= Math.floorDiv(originX + width - 1, size); tx++) {
+                int[] tile = new int[size * size * samples];
+                boolean calculated = false;
+                int x0 = (int) (tx * size - originX);
+                int y0 = (int) (ty * size - originY);
+                int xFrom = Math.max(0, x0);
+                int xTo = Math.min(width, x0 + size);
+                for (int y = Math.max(0, y0); y < Math.min(height, y0 + size); y++) {
+                    int from = (y * width + xFrom) * samples;
+                    int length = (xTo - xFrom) * samples;
+                    System.arraycopy(iterations, from, tile, ((y - y0) * size + xFrom - x0) * samples, length);
+                    for (int i = from; i < from + length && !calculated; i++) {
+                        calculated = iterations[i] != 0;
+                    }
+                }
+                if (calculated) {
+                    tileCache.put(tileKey(tx, ty), tile);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return key of a tile of the {@link TileCache} for this renderer
+     */
+    private TileCache.Key tileKey(long tileX, long tileY) {
+        return new TileCache.Key(scale, tileX, tileY, formula, formula.getMaxIterations(), samples);
+    }
+
+    /**
+     * Copies iteration counts of samples which fall on samples of the 
+     * previous image. Coordinates are compared in units of the distance 
+     * between samples, so the mapping is done in whole numbers.
+     * @param previous renderer which rendered the image before zooming
+     */
+    private void takeZoomedCounts(MandelbrotSetRenderer previous) {
+        int base = antialiased ? ANTIALIASING_BASE : 1;
+        // Index of the previous pixel and its sample for every sample
+        // column of this image, -1 if there is none
+        int[] columns = new int[width * base];
+        for (int sx = 0; sx < columns.length; sx++) {
+            columns[sx] = toPreviousSample(sx, zoomX, base, previous.width);
+        }
+        IntStream lines = IntStream.range(0, height * base);
+        if (parallel) {
+            lines = lines.parallel();
+        }
+        lines.forEach((int sy) -> {
+            int row = toPreviousSample(sy, zoomY, base, previous.height);
+            if (row < 0) {
+                return;
+            }
+            int y = sy / base;
+            int j = sy % base;
+            int previousLine = row / base * previous.width;
+            for (int sx = 0; sx < columns.length; sx++) {
+                int column = columns[sx];
+                if (column >= 0) {
+                    int sample = sx % base * base + j;
+                    int previousSample = column % base * base + row % base;
+                    iterations[(y * width + sx / base) * samples + sample] = 
+                            previous.iterations[(previousLine + column / base) * samples + previousSample];
+                }
+            }
+        });
+    }
+
+    /**
+     * Finds a sample of the previous image at the same point as a sample
+     * of this one, along one axis. Samples of a pixel are numbered from 0
+     * and sample positions in units of the distance between samples are
+     * pixel * base + sample - base / 2.
+     * @param sample number of the sample along the axis in this image, 
+     * pixel * base + sample index
+     * @param center zoom center along the axis in whole pixels
+     * @param base number of samples of a pixel along the axis
+     * @param size size of the previous image along the axis
+     * @return number of the sample of the previous image at the same point
+     * in the same form, -1 if there is none
+     */
+    private int toPreviousSample(int sample, int center, int base, int size) {
+        int offset = sample - base / 2 - center * base;
+        if (!zoomOut && offset % zoomRatio != 0) {
+            return -1;
+        }
+        int position = center * base + (zoomOut ? offset * zoomRatio : offset / zoomRatio);
+        int pixel = Math.floorDiv(position + base / 2, base);
+        if (pixel < 0 || pixel >= size) {
+            return -1;
+        }
+        return position + base / 2;
+    }
+
+    /**
+     * Calculates the central sample of every step-th pixel of a line in 
+     * [from, to) if it is not calculated yet and draws it as a block of 
+     * step x step pixels. Pixels in the rectangular area to skip are neither
+     * calculated nor drawn. Blocks of different pixels never overlap, so 
+     * lines of the same pass can be calculated in parallel.
+     * @param y y coordinate of the line in the image, multiple of step
+     * @param from first x coordinate to consider
+     * @param to x coordinate after the last one to consider
+     * @param step distance between calculated pixels and size of a block
+     */
+    private void calcPreviewLine(int y, int from, int to, int step) {
+        int center = samples / 2;
+        int[] xs = new int[(to - from + step - 1) / step];
+        int n = 0;
+        // Pixels of the grid of the previous pass are drawn already, the 
+        // other ones are drawn even if their counts were taken from the 
+        // previous image
+        boolean previousLine = step < PROGRESSIVE_STEP && y % (2 * step) == 0;
+        for (int x = (from + step - 1) / step * step; x < to; x += step) {
+            if (!isSkipped(x, y) && !(previousLine && x % (2 * step) == 0)) {
+                xs[n++] = x;
+            }
+        }
+        calcMissingSamples(y, xs, n, center, center + 1);
+        if (isCancelled()) {
+            return;
+        }
+        Palette p = palette;
+        int shift = paletteShift;
+        int max = formula.getMaxIterations();
+        for (int k = 0; k < n; k++) {
+            int x = xs[k];
+            int color = p.getColor(iterations[(y * width + x) * samples + center], max, shift);
+            fillBlock(x, y, Math.min(width, x + step), Math.min(height, y + step), color);
+        }
+    }
+
+    /**
+     * Fills a rectangular block of the image with a color except for the
+     * pixels in the rectangular area to skip and the valid ones.
+     * @param x0 min x coordinate of the block
+     * @param y0 min y coordinate of the block
+     * @param x1 max x coordinate of the block, exclusive
+     * @param y1 max y coordinate of the block, exclusive
+     * @param color premultiplied ARGB value
+     */
+    private void fillBlock(int x0, int y0, int x1, int y1, int color) {
+        int w = x1 - x0;
+        if (validPixels == null && (x1 <= minX || x0 >= maxX || y1 <= minY || y0 >= maxY)) {
+            int[] block = new int[w * (y1 - y0)];
+            Arrays.fill(block, color);
+            writePixels(x0, y0, w, y1 - y0, block);
+            return;
+        }
+        int[] line = new int[w];
+        Arrays.fill(line, color);
+        for (int y = y0; y < y1; y++) {
+            int x = x0;
+            while (x < x1) {
+                if (isSkipped(x, y)) {
+                    x++;
+                    continue;
+                }
+                int start = x;
+                while (x < x1 && !isSkipped(x, y)) {
+                    x++;
+                }
+                writePixels(start, y, x - start, 1, line);
+            }
+        }
+    }
+
+    /**
+     * Calculates and writes pixels [from, to) of a horizontal line except
+     * for the ones in the rectangular area to skip and the valid ones.
+     * @param y y coordinate of the line in the image
+     * @param from first x coordinate to calculate
+     * @param to x coordinate after the last one to calculate
+     */
+    private void calcLine(int y, int from, int to) {
+        if (validPixels == null) {
+            int skipFrom = to;
+            int skipTo = to;
+            if (y < maxY && y >= minY) {
+                skipFrom = (int) Math.min(to, Math.max(from, Math.ceil(minX)));
+                skipTo = (int) Math.min(to, Math.max(skipFrom, Math.ceil(maxX)));
+            }
+            calcSegment(y, from, skipFrom);
+            calcSegment(y, skipTo, to);
+            return;
+        }
+        int x = from;
+        while (x < to && !isCancelled()) {
+            if (isSkipped(x, y)) {
+                x++;
+                continue;
+            }
+            int start = x;
+            while (x < to && !isSkipped(x, y)) {
+                x++;
+            }
+            calcSegment(y, start, x);
+        }
+    }
+
+    /**
+     * Calculates and writes pixels [from, to) of a horizontal line using the
+     * engine of this renderer. Samples already calculated by coarse passes of
+     * progressive rendering are not calculated again.
+     * @param y y coordinate of the line in the image
+     * @param from first x coordinate to calculate
+     * @param to x coordinate after the last one to calculate
+     */
+    private void calcSegment(int y, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int[] xs = new int[to - from];
+        for (int x = from; x < to; x++) {
+            xs[x - from] = x;
+        }
+        calcMissingSamples(y, xs, xs.length, 0, samples);
+        if (isCancelled()) {
+            return;
+        }
+        writePixels(from, y, to - from, 1, colorBlock(from, y, to, y + 1));
+        markValid(from, y, to - from, 1);
+    }
+
+    /**
+     * Calculates samples [fromSample, toSample) of given pixels of a line 
+     * which are not calculated yet and stores them to the raw buffer. 
+     * {@link Engine#VECTOR} and {@link Engine#BULK} engines calculate all 
+     * missing samples with the same index at once with {@link VectorKernel}
+     * or {@link #calcBulk(double[], double, int[], int)}, other engines go
+     * pixel by pixel. Samples are taken at the same positions by all 
+     * engines, see {@link #calcSample(int, int, int)}, so the result is 
+     * identical to the scalar engine.
+     * @param y y coordinate of the line in the image
+     * @param xs x coordinates of the pixels
+     * @param n number of pixels
+     * @param fromSample index of the first sample of a pixel to calculate
+     * @param toSample index after the last sample to calculate
+     */
+    private void calcMissingSamples(int y, int[] xs, int n, int fromSample, int toSample) {
+        int line = y * width;
+        if (engine == Engine.VECTOR || engine == Engine.BULK) {
+            double[] re = new double[n];
+            int[] counts = new int[n];
+            int[] missing = new int[n];
+            double step = 1d / ANTIALIASING_BASE;
+            for (int sample = fromSample; sample < toSample; sample++) {
+                int m = 0;
+                for (int k = 0; k < n; k++) {
+                    if (iterations[(line + xs[k]) * samples + sample] == 0) {
+                        missing[m++] = xs[k];
+                    }
+                }
+                if (m == 0) {
+                    continue;
+                }
+                double subX = 0;
+                double subY = y;
+                if (antialiased) {
+                    subX = step * (sample / ANTIALIASING_BASE + 0.5);
+                    subY = y + step * (sample % ANTIALIASING_BASE + 0.5) - 0.5;
+                }
+                calcCounts(missing, m, subX, subY, re, counts);
+                for (int k = 0; k < m; k++) {
+                    iterations[(line + missing[k]) * samples + sample] = counts[k];
+                }
+                calculatedSamples.add(m);
+                if (isCancelled()) {
+                    return;
+                }
+            }
+            return;
+        }
+        int calculated = 0;
+        for (int k = 0; k < n; k++) {
+            int index = (line + xs[k]) * samples;
+            for (int sample = fromSample; sample < toSample; sample++) {
+                if (iterations[index + sample] == 0) {
+                    iterations[index + sample] = calcSample(xs[k], y, sample);
+                    calculated++;
+                }
+            }
+            if (isCancelled()) {
+                break;
+            }
+        }
+        calculatedSamples.add(calculated);
+    }
+
+    /**
+     * Colors a rectangular block of the image from the raw iteration counts
+     * with the current palette. Colors of the samples of a pixel are 
+     * averaged, pixels which are not calculated are transparent.
+     * @param x0 min x coordinate of the block
+     * @param y0 min y coordinate of the block
+     * @param x1 max x coordinate of the block, exclusive
+     * @param y1 max y coordinate of the block, exclusive
+     * @return premultiplied ARGB values of the block line by line
+     */
+    private int[] colorBlock(int x0, int y0, int x1, int y1) {
+        Palette p = palette;
+        int shift = paletteShift;
+        int max = formula.getMaxIterations();
+        int[] block = new int[(x1 - x0) * (y1 - y0)];
+        int k = 0;
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++, k++) {
+                int index = (y * width + x) * samples;
+                if (iterations[index] == 0) {
+                    continue;
+                }
+                if (samples == 1) {
+                    block[k] = p.getColor(iterations[index], max, shift);
+                    continue;
+                }
+                int r = 0, g = 0, b = 0;
+                for (int s = 0; s < samples; s++) {
+                    int c = p.getColor(iterations[index + s], max, shift);
+                    r += (c >> 16) & 0xFF;
+                    g += (c >> 8) & 0xFF;
+                    b += c & 0xFF;
+                }
+                block[k] = average(r, g, b);
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Publishes a block of calculated pixels to the image. Pixels are 
+     * calculated into private buffers and blocks written by different 
+     * workers never overlap, so nothing is locked.
+     * @param x x coordinate of the block in the image
+     * @param y y coordinate of the block in the image
+     * @param w width of the block
+     * @param h height of the block
+     * @param pixels premultiplied ARGB values of the block line by line
+     */
+    private void writePixels(int x, int y, int w, int h, int[] pixels) {
+        image.setPixels(x, y, w, h, pixels);
+        hasUpdates = true;
+    }
+
+    /**
+     * Marks a rectangle of written pixels as valid. Pixels of the rectangle
+     * which were skipped are valid as well, they are kept from the previous
+     * image.
+     * @param x x coordinate of the rectangle
+     * @param y y coordinate of the rectangle
+     * @param w width of the rectangle
+     * @param h height of the rectangle
+     */
+    private void markValid(int x, int y, int w, int h) {
+        if (validPixels != null) {
+            validPixels.set(x, y, w, h);
+        }
+    }
+
+    /**
+     * Calculates iteration counts for given pixels of a line.
+     * @param xs x coordinates of the pixels
+     * @param n number of pixels
+     * @param subX horizontal sample offset inside of a pixel, only used in
+     * antialiased mode
+     * @param y y coordinate of the samples in the image
+     * @param re buffer for real values of the samples
+     * @param counts array to store calculated iteration counts to
+     */
+    private void calcCounts(int[] xs, int n, double subX, double y, double[] re, int[] counts) {
+        for (int k = 0; k < n; k++) {
+            double px = antialiased ? xs[k] + subX - 0.5 : xs[k];
+            re[k] = (minR * (width - px) + px * maxR) / width;
+        }
+        double im = (minI * (height - y) + y * maxI) / height;
+        if (engine == Engine.VECTOR) {
+            VectorKernel.calc(re, im, counts, n);
+        } else {
+            calcBulk(re, im, counts, n);
+        }
+    }
+
+    /**
+     * @return true if a pixel is in the rectangular area to skip or is 
+     * valid
+     */
+    private boolean isSkipped(int x, int y) {
+        return !(x >= maxX || x < minX || y >= maxY || y < minY)
+                || validPixels != null && validPixels.get(x, y);
+    }
+
+    /**
+     * Returns iteration count at the center of a pixel calculating it only 
+     * once. Concurrent calls for the same pixel may both calculate it, which
+     * is harmless as the result is the same.
+     * @param x x coordinate of the pixel in the image
+     * @param y y coordinate of the pixel in the image
+     * @return iteration count
+     */
+    private int countAt(int x, int y) {
+        int index = y * width + x;
+        int count = counts[index];
+        if (count == 0) {
+            double re = (minR * (width - x) + x * maxR) / width;
+            double im = (minI * (height - y) + y * maxI) / height;
+            count = formula.calc(re, im);
+            counts[index] = count;
+            calculatedSamples.increment();
+        }
+        return count;
+    }
+
+    /**
+     * Rectangle of the image to be calculated by the
+     * {@link Engine#MARIANI_SILVER} engine. Subrectangles are calculated in
+     * parallel in fork/join pool when the renderer is parallel.
+     */
+    private class Subdivision extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Rectangle bounds, max values are exclusive
+         */
+        private final int x0, y0, x1, y1;
+
+        Subdivision(int x0, int y0, int x1, int y1) {
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+        }
+
+        @Override
+        protected void compute() {
+            // isCancelled() here would be the one of the fork/join task,
+            // which is never cancelled, the renderer flag is read instead
+            if (cancelled) {
+                return;
+            }
+            if (x0 >= minX && x1 <= maxX && y0 >= minY && y1 <= maxY) {
+                // The whole rectangle is in the area to skip
+                done();
+                return;
+            }
+            if (x1 - x0 <= SUBDIVISION_MIN_SIZE || y1 - y0 <= SUBDIVISION_MIN_SIZE) {
+                calcPixels();
+                return;
+            }
+            if (hasUniformBorder()) {
+                fill(countAt(x0, y0));
+                return;
+            }
+            int mx = (x0 + x1) / 2;
+            int my = (y0 + y1) / 2;
+            Subdivision[] parts = {
+                new Subdivision(x0, y0, mx, my),
+                new Subdivision(mx, y0, x1, my),
+                new Subdivision(x0, my, mx, y1),
+                new Subdivision(mx, my, x1, y1)
+            };
+            if (parallel) {
+                invokeAll(parts);
+            } else {
+                for (Subdivision part : parts) {
+                    part.compute();
+                }
+            }
+        }
+
+        /**
+         * @return true if all pixels on the border have the same count
+         */
+        private boolean hasUniformBorder() {
+            int count = countAt(x0, y0);
+            for (int x = x0; x < x1; x++) {
+                if (countAt(x, y0) != count || countAt(x, y1 - 1) != count) {
+                    return false;
+                }
+            }
+            for (int y = y0 + 1; y < y1 - 1; y++) {
+                if (countAt(x0, y) != count || countAt(x1 - 1, y) != count) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Fills samples of the rectangle which are not calculated yet except
+         * for the area to skip with an iteration count
+         * @param count iteration count
+         */
+        private void fill(int count) {
+            if (cancelled) {
+                return;
+            }
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    // Pixels to skip stay transparent as they were cleared
+                    if (!isSkipped(x, y)) {
+                        int index = (y * width + x) * samples;
+                        for (int sample = index; sample < index + samples; sample++) {
+                            if (iterations[sample] == 0) {
+                                iterations[sample] = count;
+                            }
+                        }
+                    }
+                }
+            }
+            writePixels(x0, y0, x1 - x0, y1 - y0, colorBlock(x0, y0, x1, y1));
+            markValid(x0, y0, x1 - x0, y1 - y0);
+            done();
+        }
+
+        /**
+         * Calculates the rectangle pixel by pixel
+         */
+        private void calcPixels() {
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    if (isSkipped(x, y)) {
+                        continue;
+                    }
+                    // The central sample is the count at the pixel center,
+                    // which may be known already
+                    int center = (y * width + x) * samples + samples / 2;
+                    if (iterations[center] == 0) {
+                        iterations[center] = countAt(x, y);
+                    }
+                    if (antialiased) {
+                        calcSamples(x, y);
+                    }
+                    if (cancelled) {
+                        return;
+                    }
+                }
+            }
+            writePixels(x0, y0, x1 - x0, y1 - y0, colorBlock(x0, y0, x1, y1));
+            markValid(x0, y0, x1 - x0, y1 - y0);
+            done();
+        }
+
+        /**
+         * Adds the rectangle area to the progress
+         */
+        private void done() {
+            long total = (long) width * height;
+            updateProgress(progress.addAndGet((x1 - x0) * (y1 - y0)), total);
+        }
+    }
+
+    /**
+     * Calculates number of iterations a complex quadratic polynomials
+     * stays within a disk of some finite radius for a given complex number.
+     * 
+     * This number is used to choose a color for this pixel for precalculated 
+     * color tables.
+     * 
+     * The orbit is kept in primitive locals and squared terms are reused
+     * between the escape test and the next iteration, so no objects are
+     * allocated per sample. Operations are done in the same order as 
+     * {@link Complex#times(demo.parallel.Complex)}, 
+     * {@link Complex#plus(demo.parallel.Complex)} and 
+     * {@link Complex#lengthSQ()}, so the result is bit-identical to the 
+     * {@code Complex} based loop.
+     * 
+     * Points inside of the set are recognized early: the main cardioid and
+     * the period-2 bulb analytically, other ones when their orbit repeats 
+     * exactly. The returned count is the same as without these shortcuts.
+     *
+     * @param re real part of a complex number used for calculation
+     * @param im imaginary part of a complex number used for calculation
+     * @return number of iterations a value stayed within a given disk.
+     */
+    static int calc(double re, double im) {
+        if (isInMainCardioidOrBulb(re, im)) {
+            return CAL_MAX_COUNT;
+        }
+        return calcWithPeriodicity(re, im);
+    }
+
+    /**
+     * Same as {@link #calc(double, double)} but without the main cardioid
+     * and bulb check, only orbits coming back to exactly the same point are
+     * recognized as interior, the same way {@link #calcDoubleDouble} does.
+     * Used as a reference in benchmarks.
+     * @param re real part of a complex number used for calculation
+     * @param im imaginary part of a complex number used for calculation
+     * @return number of iterations a value stayed within a given disk.
+     */
+    static int calcWithPeriodicity(double re, double im) {
+        int count = 0;
+        double zr = 0, zi = 0;
+        double zr2 = 0, zi2 = 0;
+        
+        // Orbit point saved for periodicity checking, it is moved forward
+        // each time the count reaches the next power of two (Brent's method)
+        double savedR = 0, savedI = 0;
+        int checkpoint = 1;
+        do {
+            double zri = zr * zi;
+            zi = zri + zri + im;
+            zr = zr2 - zi2 + re;
+            zr2 = zr * zr;
+            zi2 = zi * zi;
+            count++;
+            if (zr == savedR && zi == savedI) {
+                // The orbit came back to exactly the same point, so it is 
+                // periodic and will never escape
+                return CAL_MAX_COUNT;
+            }
+            if (count == checkpoint) {
+                savedR = zr;
+                savedI = zi;
+                checkpoint <<= 1;
+            }
+        } while (count < CAL_MAX_COUNT && zr2 + zi2 < LENGTH_BOUNDARY);
+        return count;
+    }
+
+    /**
+     * Same as {@link #calc(double, double)} but without interior shortcuts,
+     * every point inside of the set takes {@link #CAL_MAX_COUNT} iterations.
+     * Used as a reference in tests and benchmarks.
+     * @param re real part of a complex number used for calculation
+     * @param im imaginary part of a complex number used for calculation
+     * @return number of iterations a value stayed within a given disk.
+     */
+    static int calcWithoutShortcuts(double re, double im) {
+        int count = 0;
+        double zr = 0, zi = 0;
+        double zr2 = 0, zi2 = 0;
+        do {
+            double zri = zr * zi;
+            zi = zri + zri + im;
+            zr = zr2 - zi2 + re;
+            zr2 = zr * zr;
+            zi2 = zi * zi;
+            count++;
+        } while (count < CAL_MAX_COUNT && zr2 + zi2 < LENGTH_BOUNDARY);
+        return count;
+    }
+
+    /**
+     * Same as {@link #calc(double, double)} for a whole line of points at 
+     * once. Orbits of all points are kept in a {@link ComplexArray} and 
+     * advanced together with bulk operations, escaped points are compacted 
+     * out after each iteration, so only the still active ones are iterated.
+     * Points inside of the main cardioid or the bulb are never iterated.
+     * @param re real parts of complex numbers used for calculation
+     * @param im imaginary part of all complex numbers
+     * @param counts array to store numbers of iterations into
+     * @param length number of points to calculate
+     */
+    static void calcBulk(double[] re, double im, int[] counts, int length) {
+        ComplexArray c = new ComplexArray(length);
+        ComplexArray z = new ComplexArray(length);
+        int[] index = new int[length];
+        int active = 0;
+        for (int k = 0; k < length; k++) {
+            if (isInMainCardioidOrBulb(re[k], im)) {
+                counts[k] = CAL_MAX_COUNT;
+            } else {
+                c.set(active, re[k], im);
+                index[active++] = k;
+            }
+        }
+        double[] lengthSQ = new double[length];
+        int count = 0;
+        while (active > 0) {
+            c.setSize(active);
+            z.setSize(active);
+            z.mandelbrot(c).lengthSQ(lengthSQ);
+            count++;
+            int remaining = 0;
+            for (int k = 0; k < active; k++) {
+                if (count < CAL_MAX_COUNT && lengthSQ[k] < LENGTH_BOUNDARY) {
+                    z.move(k, remaining);
+                    c.move(k, remaining);
+                    index[remaining++] = index[k];
+                } else {
+                    counts[index[k]] = count;
+                }
+            }
+            active = remaining;
+        }
+    }
+
+    /**
+     * Same as {@link #calc(double, double)} in double-double precision, each
+     * value is an unevaluated sum of a high and a low part. Operations are
+     * the ones of {@link DoubleDoubleComplex#square()} and 
+     * {@link DoubleDoubleComplex#plus(demo.parallel.DoubleDoubleComplex)}
+     * written out over local variables, so nothing is allocated. Only exact
+     * repeats of the orbit are used as an interior shortcut, analytic ones 
+     * are not precise enough at the depth this kernel is used for.
+     * @param reHi high part of the real part of a complex number
+     * @param reLo low part of the real part of a complex number
+     * @param imHi high part of the imaginary part of a complex number
+     * @param imLo low part of the imaginary part of a complex number
+     * @return number of iterations a value stayed within a given disk.
+     */
+    static int calcDoubleDouble(double reHi, double reLo, double imHi, double imLo) {
+        int count = 0;
+        double zrHi = 0, zrLo = 0, ziHi = 0, ziLo = 0;
+        double savedRHi = 0, savedRLo = 0, savedIHi = 0, savedILo = 0;
+        int checkpoint = 1;
+        do {
+            // zr² - zi² + re
+            double rrHi = zrHi * zrHi;
+            double rrLo = Math.fma(zrHi, zrHi, -rrHi) + 2 * zrHi * zrLo;
+            double iiHi = ziHi * ziHi;
+            double iiLo = Math.fma(ziHi, ziHi, -iiHi) + 2 * ziHi * ziLo;
+            double riHi = zrHi * ziHi;
+            double riLo = Math.fma(zrHi, ziHi, -riHi) + zrHi * ziLo + zrLo * ziHi;
+            double s = rrHi - iiHi;
+            double e = DoubleDoubleComplex.twoSumError(rrHi, -iiHi, s) + rrLo - iiLo;
+            double tHi = s + e;
+            double tLo = e - (tHi - s);
+            s = tHi + reHi;
+            e = DoubleDoubleComplex.twoSumError(tHi, reHi, s) + tLo + reLo;
+            zrHi = s + e;
+            zrLo = e - (zrHi - s);
+
+            // 2 * zr * zi + im
+            s = 2 * riHi + imHi;
+            e = DoubleDoubleComplex.twoSumError(2 * riHi, imHi, s) + 2 * riLo + imLo;
+            ziHi = s + e;
+            ziLo = e - (ziHi - s);
+            count++;
+            if (zrHi == savedRHi && zrLo == savedRLo && ziHi == savedIHi && ziLo == savedILo) {
+                return CAL_MAX_COUNT;
+            }
+            if (count == checkpoint) {
+                savedRHi = zrHi;
+                savedRLo = zrLo;
+                savedIHi = ziHi;
+                savedILo = ziLo;
+                checkpoint <<= 1;
+            }
+        } while (count < CAL_MAX_COUNT && zrHi * zrHi + ziHi * ziHi < LENGTH_BOUNDARY);
+        return count;
+    }
+
+    /**
+     * Checks whether a point belongs to the main cardioid or to the period-2
+     * bulb of the set. Such points never escape, so their iterations don't
+     * need to be calculated.
+     * @param re real part of a complex number
+     * @param im imaginary part of a complex number
+     * @return true if the point is inside of the main cardioid or the bulb
+     */
+    static boolean isInMainCardioidOrBulb(double re, double im) {
+        double im2 = im * im;
+        double xq = re - 0.25;
+        double q = xq * xq + im2;
+        // The whole cardioid is within distance 1 from its cusp at 0.25, 
+        // the check also keeps q from overflowing for far away points
+        if (q <= 1 && q * (q + xq) <= 0.25 * im2) {
+            return true;
+        }
+        double xb = re + 1;
+        return xb * xb + im2 <= 0.0625;
+    }
+
+    /**
+     * Calculates iteration count at a given position on the image using 
+     * {@link #calc(double, double) } method or the one of the engine.
+     * @param x x coordinate in the image, may be fractional
+     * @param y y coordinate in the image, may be fractional
+     * @return number of iterations
+     */
+    private int calcCount(double x, double y) {
+        if (perturbation != null) {
+            return perturbation.calc(x, y);
+        }
+        if (engine == Engine.DOUBLE_DOUBLE) {
+            // Offset from the center is small, so a double holds it exactly
+            // enough, it is added to the center in double-double precision
+            double dr = (x - width / 2d) * scale;
+            double di = (y - height / 2d) * scale;
+            double s = centerReHi + dr;
+            double e = DoubleDoubleComplex.twoSumError(centerReHi, dr, s) + centerReLo;
+            double reHi = s + e;
+            double reLo = e - (reHi - s);
+            s = centerImHi + di;
+            e = DoubleDoubleComplex.twoSumError(centerImHi, di, s) + centerImLo;
+            double imHi = s + e;
+            double imLo = e - (imHi - s);
+            return calcDoubleDouble(reHi, reLo, imHi, imLo);
+        }
+        double re = (minR * (width - x) + x * maxR) / width;
+        double im = (minI * (height - y) + y * maxI) / height;
+        return formula.calc(re, im);
+    }
+
+    /**
+     * Calculates iteration counts of a given pixel on the image by dividing
+     * real and imaginary value ranges of a pixel by {@link #ANTIALIASING_BASE}
+     * and stores them to the raw buffer. Colors of the samples are averaged
+     * when the pixel is colored. Samples which are already calculated are 
+     * kept.
+     * @param x x coordinate of the pixel in the image
+     * @param y y coordinate of the pixel in the image
+     */
+    private void calcSamples(int x, int y) {
+        int index = (y * width + x) * SAMPLES;
+        for (int sample = 0; sample < SAMPLES; sample++) {
+            if (iterations[index + sample] == 0) {
+                iterations[index + sample] = calcSample(x, y, sample);
+                calculatedSamples.increment();
+            }
+        }
+    }
+
+    /**
+     * Calculates iteration count of one sample of a pixel. Samples of an
+     * antialiased pixel form a {@link #ANTIALIASING_BASE} x 
+     * {@link #ANTIALIASING_BASE} grid stored column by column, the central
+     * one is at the pixel position.
+     * @param x x coordinate of the pixel in the image
+     * @param y y coordinate of the pixel in the image
+     * @param sample index of the sample, 0 when not antialiased
+     * @return number of iterations
+     */
+    private int calcSample(int x, int y, int sample) {
+        if (!antialiased) {
+            return calcCount(x, y);
+        }
+        double step = 1d / ANTIALIASING_BASE;
+        int i = sample / ANTIALIASING_BASE;
+        int j = sample % ANTIALIASING_BASE;
+        return calcCount(x + step * (i + 0.5) - 0.5, y + step * (j + 0.5) - 0.5);
+    }
+
+    /**
+     * Makes an opaque color from channel sums of {@link #SAMPLES} samples,
+     * each channel is rounded to the nearest integer.
+     * @param r sum of red channels
+     * @param g sum of green channels
+     * @param b sum of blue channels
+     * @return premultiplied ARGB value of the average color
+     */
+    static int average(int r, int g, int b) {
+        r = (r + SAMPLES / 2) / SAMPLES;
+        g = (g + SAMPLES / 2) / SAMPLES;
+        b = (b + SAMPLES / 2) / SAMPLES;
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+}
@@ -0,0 +1,474 @@
+package demo.parallel;
+
+import java.math.BigDecimal;
+import java.nio.IntBuffer;
+import java.util.Random;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class MandelbrotSetRendererTest {
+
+    /**
+     * Области из Main.flyToPosition(int): minR, minI, maxR, maxI
+     */
+    private static final double[][] PRESETS = {
+        {-2.4451320039285465, -1.3061943784663503, 0.9425352568739851, 1.2879652356695286},
+        {-1.4831212866723549, -0.026946715467747517, -1.4831211655199326, -0.026946649881416845},
+        {-0.6512456310112382, -0.4797642161720457, -0.651219785161165, -0.4797444243048724},
+        {0.38835929484388515, -0.23577130937499838, 0.39102329484388804, -0.2337313093749984},
+    };
+
+    private static final int SIZE = 120;
+
+    /**
+     * Эталонный расчет через объекты Complex (как было до примитивного ядра)
+     */
+    private static int calcWithComplex(Complex comp) {
+        int count = 0;
+        Complex c = new Complex(0, 0);
+        do {
+            c = c.times(c).plus(comp);
+            count++;
+        } while (count < MandelbrotSetRenderer.CAL_MAX_COUNT
+                && c.lengthSQ() < MandelbrotSetRenderer.LENGTH_BOUNDARY);
+        return count;
+    }
+
+    // Ядро должно давать те же счетчики итераций, что и Complex
+    @Test
+    public void testCalcMatchesComplexOnPresets() {
+        for (double[] p : PRESETS) {
+            for (int y = 0; y < SIZE; y++) {
+                for (int x = 0; x < SIZE; x++) {
+                    double re = (p[0] * (SIZE - x) + x * p[2]) / SIZE;
+                    double im = (p[1] * (SIZE - y) + y * p[3]) / SIZE;
+                    assertEquals(calcWithComplex(new Complex(re, im)),
+                            MandelbrotSetRenderer.calc(re, im),
+                            "re=" + re + ", im=" + im);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCalcEdgeValues() {
+        double[][] points = {
+            {0, 0}, {-2, 0}, {0.25, 0}, {-0.75, 0}, {2, 2}, {-2.5, 1.5},
+            {Double.MIN_VALUE, -Double.MIN_VALUE}, {1e300, 1e300}, {-0.1, 0.65}
+        };
+        for (double[] p : points) {
+            assertEquals(calcWithComplex(new Complex(p[0], p[1])),
+                    MandelbrotSetRenderer.calc(p[0], p[1]));
+        }
+    }
+
+    // Внутренние точки распознаются досрочно без изменения результата
+    @Test
+    public void testShortcutsDoNotChangeCounts() {
+        for (double[] p : PRESETS) {
+            for (int y = 0; y < SIZE; y++) {
+                for (int x = 0; x < SIZE; x++) {
+                    double re = (p[0] * (SIZE - x) + x * p[2]) / SIZE;
+                    double im = (p[1] * (SIZE - y) + y * p[3]) / SIZE;
+                    int expected = MandelbrotSetRenderer.calcWithoutShortcuts(re, im);
+                    assertEquals(expected, MandelbrotSetRenderer.calc(re, im), "re=" + re + ", im=" + im);
+                    assertEquals(expected, MandelbrotSetRenderer.calcWithPeriodicity(re, im),
+                            "re=" + re + ", im=" + im);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMainCardioidAndBulb() {
+        assertTrue(MandelbrotSetRenderer.isInMainCardioidOrBulb(0, 0));
+        assertTrue(MandelbrotSetRenderer.isInMainCardioidOrBulb(-0.5, 0.5));
+        assertTrue(MandelbrotSetRenderer.isInMainCardioidOrBulb(-1, 0.2));
+        assertFalse(MandelbrotSetRenderer.isInMainCardioidOrBulb(-1.3, 0));
+        assertFalse(MandelbrotSetRenderer.isInMainCardioidOrBulb(0.3, 0));
+        assertFalse(MandelbrotSetRenderer.isInMainCardioidOrBulb(-0.1, 0.9));
+    }
+
+    // Ядро double-double почти везде совпадает с double на малом увеличении
+    @Test
+    public void testDoubleDoubleKernelOnPresets() {
+        int same = 0;
+        int total = 0;
+        for (double[] p : PRESETS) {
+            for (int y = 0; y < SIZE; y++) {
+                for (int x = 0; x < SIZE; x++) {
+                    double re = (p[0] * (SIZE - x) + x * p[2]) / SIZE;
+                    double im = (p[1] * (SIZE - y) + y * p[3]) / SIZE;
+                    if (MandelbrotSetRenderer.calcDoubleDouble(re, 0, im, 0) == MandelbrotSetRenderer.calc(re, im)) {
+                        same++;
+                    }
+                    total++;
+                }
+            }
+        }
+        assertTrue(same >= total * 0.99, "same counts: " + same + " of " + total);
+    }
+
+    @Test
+    public void testCalcInteriorAndExterior() {
+        assertEquals(MandelbrotSetRenderer.CAL_MAX_COUNT, MandelbrotSetRenderer.calc(0, 0));
+        assertEquals(1, MandelbrotSetRenderer.calc(3, 0));
+    }
+
+    // Векторное ядро должно совпадать со скалярным по каждой дорожке
+    @Test
+    public void testVectorKernelMatchesScalar() {
+        assumeTrue(MandelbrotSetRenderer.Engine.VECTOR.isAvailable());
+        int length = SIZE + 3; // хвост не кратен длине вектора
+        double[] re = new double[length];
+        int[] counts = new int[length];
+        for (double[] p : PRESETS) {
+            for (int y = 0; y < SIZE; y++) {
+                double im = (p[1] * (SIZE - y) + y * p[3]) / SIZE;
+                for (int x = 0; x < length; x++) {
+                    re[x] = (p[0] * (length - x) + x * p[2]) / length;
+                }
+                VectorKernel.calc(re, im, counts, length);
+                for (int x = 0; x < length; x++) {
+                    assertEquals(MandelbrotSetRenderer.calc(re[x], im), counts[x]);
+                }
+            }
+        }
+    }
+
+    // Построчное ядро на ComplexArray дает те же счетчики
+    @Test
+    public void testBulkKernelMatchesScalar() {
+        double[] re = new double[SIZE];
+        int[] counts = new int[SIZE];
+        for (double[] p : PRESETS) {
+            for (int y = 0; y < SIZE; y++) {
+                double im = (p[1] * (SIZE - y) + y * p[3]) / SIZE;
+                for (int x = 0; x < SIZE; x++) {
+                    re[x] = (p[0] * (SIZE - x) + x * p[2]) / SIZE;
+                }
+                MandelbrotSetRenderer.calcBulk(re, im, counts, SIZE);
+                for (int x = 0; x < SIZE; x++) {
+                    assertEquals(MandelbrotSetRenderer.calc(re[x], im), counts[x]);
+                }
+            }
+        }
+    }
+
+    // Целочисленное усреднение цветов таблицы округляет каналы так же, как
+    // усреднение тех же цветов через Color; с неквантованными цветами
+    // Color.interpolate результат может отличаться на единицу
+    @Test
+    public void testIntegerAverageRoundsLikeColorAverage() {
+        Random random = new Random(1);
+        for (int n = 0; n < 10_000; n++) {
+            int r = 0, g = 0, b = 0;
+            double rd = 0, gd = 0, bd = 0;
+            for (int k = 0; k < 9; k++) {
+                int c = Palette.CLASSIC.get(random.nextInt(Palette.SIZE));
+                Color color = Color.rgb((c >> 16) & 0xFF, (c >> 8) & 0xFF, c & 0xFF);
+                r += (c >> 16) & 0xFF;
+                g += (c >> 8) & 0xFF;
+                b += c & 0xFF;
+                rd += color.getRed() / 9;
+                gd += color.getGreen() / 9;
+                bd += color.getBlue() / 9;
+            }
+            assertEquals(PaletteTest.toArgbPre(new Color(Math.min(rd, 1), Math.min(gd, 1), Math.min(bd, 1), 1)),
+                    MandelbrotSetRenderer.average(r, g, b));
+        }
+    }
+
+    // Прогрессивная отрисовка дает те же пиксели и не считает отсчеты дважды
+    @Test
+    public void testProgressiveMatchesPlain() {
+        int width = 90;
+        int height = 70;
+        for (MandelbrotSetRenderer.Engine engine : new MandelbrotSetRenderer.Engine[] {
+                MandelbrotSetRenderer.Engine.SCALAR, MandelbrotSetRenderer.Engine.BULK}) {
+            for (boolean fast : new boolean[] {true, false}) {
+                for (boolean parallel : new boolean[] {false, true}) {
+                    OffscreenImage plainImage = new OffscreenImage(width, height);
+                    MandelbrotSetRenderer plain = renderer(parallel, plainImage, -0.75, 0.1, 0.03, fast, engine);
+                    plain.render();
+                    OffscreenImage progressiveImage = new OffscreenImage(width, height);
+                    MandelbrotSetRenderer progressive = renderer(parallel, progressiveImage, -0.75, 0.1, 0.03,
+                            fast, engine);
+                    progressive.setProgressive(true);
+                    progressive.render();
+                    String name = engine + (fast ? " fast" : " antialiased") + (parallel ? " parallel" : "");
+                    assertArrayEquals(pixels(plainImage), pixels(progressiveImage), name);
+                    long all = (long) width * height * plain.getSamples();
+                    assertEquals(all, plain.getCalculatedSamples(), name);
+                    assertEquals(all, progressive.getCalculatedSamples(), name);
+                }
+            }
+        }
+    }
+
+    // Отсчеты, взятые у предыдущего изображения при приближении и
+    // отдалении, дают те же пиксели, что и отрисовка с нуля
+    @Test
+    public void testZoomedFromMatchesFreshRender() {
+        int width = 48;
+        int height = 36;
+        double re = -0.75;
+        double im = 0.125;
+        double scale = 1d / 256;
+        for (boolean fast : new boolean[] {true, false}) {
+            for (int ratio = 2; ratio <= 4; ratio++) {
+                for (boolean out : new boolean[] {false, true}) {
+                    double byScale = out ? ratio : 1d / ratio;
+                    int[][] centers = {{width / 2, height / 2}, {10, 29}};
+                    for (int[] center : centers) {
+                        String name = (fast ? "fast" : "antialiased") + (out ? " out " : " in ") + ratio
+                                + "x at " + center[0] + "," + center[1];
+                        OffscreenImage before = new OffscreenImage(width, height);
+                        MandelbrotSetRenderer previous = renderer(false, before, re, im, scale, fast,
+                                MandelbrotSetRenderer.Engine.SCALAR);
+                        previous.render();
+
+                        // Точка под центром масштабирования остается на месте
+                        double newScale = scale * byScale;
+                        double newRe = re + (center[0] - width / 2d) * (scale - newScale);
+                        double newIm = im + (center[1] - height / 2d) * (scale - newScale);
+                        OffscreenImage zoomedImage = new OffscreenImage(width, height);
+                        MandelbrotSetRenderer zoomed = renderer(false, zoomedImage, newRe, newIm, newScale, fast,
+                                MandelbrotSetRenderer.Engine.SCALAR);
+                        assertTrue(zoomed.setZoomedFrom(previous, center[0], center[1], byScale), name);
+                        zoomed.render();
+                        OffscreenImage freshImage = new OffscreenImage(width, height);
+                        renderer(false, freshImage, newRe, newIm, newScale, fast,
+                                MandelbrotSetRenderer.Engine.SCALAR).render();
+                        assertArrayEquals(pixels(freshImage), pixels(zoomedImage), name);
+
+                        if (center[0] == width / 2) {
+                            // Из центра по каждой оси берется 1/ratio отсчетов:
+                            // при 2x без сглаживания считаются 75% отсчетов
+                            int base = fast ? 1 : 3;
+                            long reused = (long) (width * base / ratio) * (height * base / ratio);
+                            long all = (long) width * height * zoomed.getSamples();
+                            assertEquals(all - reused, zoomed.getCalculatedSamples(), name);
+                        } else {
+                            assertTrue(zoomed.getCalculatedSamples() < (long) width * height * zoomed.getSamples(),
+                                    name);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Mariani-Silver не считает заново центры пикселей, взятые у
+    // предыдущего изображения
+    @Test
+    public void testZoomedFromReusedByMarianiSilver() {
+        MandelbrotSetRenderer.Engine mariani = MandelbrotSetRenderer.Engine.MARIANI_SILVER;
+        double re = -0.75;
+        double im = 0.125;
+        double scale = 1d / 256;
+        for (boolean fast : new boolean[] {true, false}) {
+            for (double byScale : new double[] {0.5, 2}) {
+                String name = (fast ? "fast " : "antialiased ") + byScale;
+                MandelbrotSetRenderer previous = renderer(false, new OffscreenImage(48, 36), re, im, scale, fast,
+                        mariani);
+                previous.render();
+                MandelbrotSetRenderer zoomed = renderer(false, new OffscreenImage(48, 36), re, im, scale * byScale,
+                        fast, mariani);
+                assertTrue(zoomed.setZoomedFrom(previous, 24, 18, byScale), name);
+                zoomed.render();
+                MandelbrotSetRenderer fresh = renderer(false, new OffscreenImage(48, 36), re, im, scale * byScale,
+                        fast, mariani);
+                fresh.render();
+                assertTrue(zoomed.getCalculatedSamples() < fresh.getCalculatedSamples(), name);
+            }
+        }
+    }
+
+    // Отсчеты не берутся у изображения другого размера или точности
+    @Test
+    public void testZoomedFromRejectsIncompatible() {
+        MandelbrotSetRenderer.Engine scalar = MandelbrotSetRenderer.Engine.SCALAR;
+        MandelbrotSetRenderer previous = renderer(false, new OffscreenImage(40, 30), -0.75, 0.1, 0.01, true, scalar);
+        assertFalse(renderer(false, new OffscreenImage(42, 30), -0.75, 0.1, 0.005, true, scalar)
+                .setZoomedFrom(previous, 20, 15, 0.5));
+        assertFalse(renderer(false, new OffscreenImage(40, 30), -0.75, 0.1, 0.005, false, scalar)
+                .setZoomedFrom(previous, 20, 15, 0.5));
+        assertTrue(renderer(false, new OffscreenImage(40, 30), -0.75, 0.1, 0.005, true, scalar)
+                .setZoomedFrom(previous, 20, 15, 0.5));
+
+        double scale = MandelbrotSetRenderer.MEDIUM_ZOOM_SCALE * 2;
+        MandelbrotSetRenderer shallow = renderer(false, new OffscreenImage(40, 30), -0.75, 0.1, scale, true,
+                scalar.forScale(scale));
+        MandelbrotSetRenderer deep = renderer(false, new OffscreenImage(40, 30), -0.75, 0.1, scale / 4, true,
+                scalar.forScale(scale / 4));
+        assertFalse(deep.setZoomedFrom(shallow, 20, 15, 0.25));
+        assertFalse(shallow.setZoomedFrom(deep, 20, 15, 4));
+
+        // Угаданные Mariani-Silver отсчеты берет только он сам
+        MandelbrotSetRenderer.Engine mariani = MandelbrotSetRenderer.Engine.MARIANI_SILVER;
+        MandelbrotSetRenderer guessed = renderer(false, new OffscreenImage(40, 30), -0.75, 0.1, 0.01, true, mariani);
+        assertFalse(renderer(false, new OffscreenImage(40, 30), -0.75, 0.1, 0.005, true, scalar)
+                .setZoomedFrom(guessed, 20, 15, 0.5));
+        assertTrue(renderer(false, new OffscreenImage(40, 30), -0.75, 0.1, 0.005, true, mariani)
+                .setZoomedFrom(guessed, 20, 15, 0.5));
+        assertTrue(renderer(false, new OffscreenImage(40, 30), -0.75, 0.1, 0.005, true, mariani)
+                .setZoomedFrom(previous, 20, 15, 0.5));
+    }
+
+    // Отсчеты из кэша плиток при сдвиге не кратном плитке и при
+    // отрицательных координатах сетки дают те же пиксели
+    @Test
+    public void testTileCacheMatchesUncachedRender() {
+        int width = 100;
+        int height = 70;
+        double scale = 1d / 256;
+        // Левый верхний пиксель на сетке, частичные плитки по краям
+        long[][] origins = {{-300, -50}, {-263, -95}, {-337, -10}};
+        for (boolean fast : new boolean[] {true, false}) {
+            TileCache cache = new TileCache(64 << 20);
+            for (int i = 0; i < origins.length; i++) {
+                double re = (origins[i][0] + width / 2d) * scale;
+                double im = (origins[i][1] + height / 2d) * scale;
+                String name = (fast ? "fast " : "antialiased ") + origins[i][0] + "," + origins[i][1];
+                long hits = cache.getHits();
+                OffscreenImage cachedImage = new OffscreenImage(width, height);
+                MandelbrotSetRenderer cached = renderer(true, cachedImage, re, im, scale, fast,
+                        MandelbrotSetRenderer.Engine.SCALAR);
+                cached.setTileCache(cache);
+                cached.render();
+                OffscreenImage freshImage = new OffscreenImage(width, height);
+                renderer(true, freshImage, re, im, scale, fast, MandelbrotSetRenderer.Engine.SCALAR).render();
+                assertArrayEquals(pixels(freshImage), pixels(cachedImage), name);
+                long all = (long) width * height * cached.getSamples();
+                if (i == 0) {
+                    assertEquals(all, cached.getCalculatedSamples(), name);
+                } else {
+                    assertTrue(cache.getHits() > hits, name);
+                    assertTrue(cached.getCalculatedSamples() < all, name);
+                }
+            }
+        }
+    }
+
+    // Угаданные отсчеты Mariani-Silver не попадают в кэш плиток и не
+    // подменяют точные отсчеты следующей отрисовки
+    @Test
+    public void testTileCacheSkipsMarianiSilver() {
+        int width = 100;
+        int height = 70;
+        double scale = 1d / 256;
+        // Здесь угаданные пиксели отличаются от точных
+        double re = (-250 + width / 2d) * scale;
+        double im = (-100 + height / 2d) * scale;
+        TileCache cache = new TileCache(64 << 20);
+        MandelbrotSetRenderer guessed = renderer(true, new OffscreenImage(width, height), re, im, scale, false,
+                MandelbrotSetRenderer.Engine.MARIANI_SILVER);
+        guessed.setTileCache(cache);
+        guessed.render();
+
+        OffscreenImage cachedImage = new OffscreenImage(width, height);
+        MandelbrotSetRenderer cached = renderer(true, cachedImage, re, im, scale, false,
+                MandelbrotSetRenderer.Engine.SCALAR);
+        cached.setTileCache(cache);
+        cached.render();
+        OffscreenImage freshImage = new OffscreenImage(width, height);
+        renderer(true, freshImage, re, im, scale, false, MandelbrotSetRenderer.Engine.SCALAR).render();
+        assertArrayEquals(pixels(freshImage), pixels(cachedImage));
+        assertEquals(0, cache.getHits());
+        assertEquals((long) width * height * cached.getSamples(), cached.getCalculatedSamples());
+    }
+
+    // Главная кардиоида и однородные полосы снаружи заливаются
+    // прямоугольниками, пиксели совпадают с поточечным расчетом
+    @Test
+    public void testMarianiSilverMatchesScalar() {
+        int width = 80;
+        int height = 60;
+        for (boolean fast : new boolean[] {true, false}) {
+            String name = fast ? "fast" : "antialiased";
+            OffscreenImage subdividedImage = new OffscreenImage(width, height);
+            MandelbrotSetRenderer subdivided = renderer(false, subdividedImage, -0.2, 0, 1d / 64, fast,
+                    MandelbrotSetRenderer.Engine.MARIANI_SILVER);
+            subdivided.render();
+            OffscreenImage scalarImage = new OffscreenImage(width, height);
+            renderer(false, scalarImage, -0.2, 0, 1d / 64, fast, MandelbrotSetRenderer.Engine.SCALAR).render();
+            assertArrayEquals(pixels(scalarImage), pixels(subdividedImage), name);
+            // Часть прямоугольников залита, но изображение разбивалось
+            // дальше своей границы
+            assertTrue(subdivided.getCalculatedSamples() < (long) width * height * subdivided.getSamples(), name);
+            assertTrue(subdivided.getCalculatedSamples() > 2 * (width + height), name);
+        }
+    }
+
+    // Пиксели в пропускаемой области остаются прозрачными
+    @Test
+    public void testMarianiSilverKeepsSkippedArea() {
+        int width = 80;
+        int height = 60;
+        double scale = 1d / 64;
+        for (boolean fast : new boolean[] {true, false}) {
+            OffscreenImage image = new OffscreenImage(width, height);
+            new MandelbrotSetRenderer(false, image, width, height,
+                    -0.2 - scale * width / 2, -scale * height / 2, -0.2 + scale * width / 2, scale * height / 2,
+                    20, 10, 50, 40, fast, MandelbrotSetRenderer.Engine.MARIANI_SILVER, FractalFormula.MANDELBROT,
+                    new BigDecimal(-0.2), BigDecimal.ZERO, scale).render();
+            int[] pixels = pixels(image);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    boolean skipped = x >= 20 && x < 50 && y >= 10 && y < 40;
+                    assertEquals(skipped, pixels[y * width + x] == 0, x + "," + y);
+                }
+            }
+        }
+    }
+
+    // Отмененная отрисовка останавливается и не заливает остаток
+    // изображения
+    @Test
+    public void testMarianiSilverStopsWhenCancelled() {
+        int width = 80;
+        int height = 60;
+        OffscreenImage image = new OffscreenImage(width, height);
+        MandelbrotSetRenderer renderer = renderer(false, image, -0.2, 0, 1d / 64, true,
+                MandelbrotSetRenderer.Engine.MARIANI_SILVER);
+        renderer.setProgressListener((done, total) -> {
+            if (done > 0) {
+                renderer.cancel();
+            }
+        });
+        renderer.render();
+        assertTrue(renderer.isCancelled());
+        int transparent = 0;
+        for (int pixel : pixels(image)) {
+            if (pixel == 0) {
+                transparent++;
+            }
+        }
+        assertTrue(transparent > width * height / 2, "transparent " + transparent);
+    }
+
+    /**
+     * Создает отрисовщик области с центром re + i*im и размером пикселя
+     * scale во все изображение
+     */
+    private static MandelbrotSetRenderer renderer(boolean parallel, OffscreenImage image, double re, double im,
+            double scale, boolean fast, MandelbrotSetRenderer.Engine engine) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        return new MandelbrotSetRenderer(parallel, image, width, height,
+                re - scale * width / 2, im - scale * height / 2, re + scale * width / 2, im + scale * height / 2,
+                0, 0, 0, 0, fast, engine, FractalFormula.MANDELBROT,
+                new BigDecimal(re), new BigDecimal(im), scale);
+    }
+
+    private static int[] pixels(OffscreenImage image) {
+        IntBuffer buffer = image.getBuffer();
+        int[] pixels = new int[buffer.capacity()];
+        buffer.get(0, pixels);
+        return pixels;
+    }
+}
@@ -1,382 +1,189 @@
-/*
- * Copyright (c) 2013, 2014, Oracle and/or its affiliates. All rights reserved.
- *
- * Redistribution and use in source and binary forms, with or without
- * modification, are permitted provided that the following conditions
- * are met:
- *
- *   - Redistributions of source code must retain the above copyright
- *     notice, this list of conditions and the following disclaimer.
- *
- *   - Redistributions in binary form must reproduce the above copyright
- *     notice, this list of conditions and the following disclaimer in the
- *     documentation and/or other materials provided with the distribution.
- *
- *   - Neither the name of Oracle nor the names of its
- *     contributors may be used to endorse or promote products derived
- *     from this software without specific prior written permission.
- *
- * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
- * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
- * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
- * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR
- * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
- * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
- * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
- * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
- * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
- * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
- * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
- */
 package demo.parallel;
 
-
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.IntStream;
+import java.math.BigDecimal;
 import javafx.concurrent.Task;
-import javafx.scene.image.PixelWriter;
-import javafx.scene.paint.Color;
-
 
 /**
- * Task to render Mandelbrot set using given parameters. See {@link 
- * #MandelbrotRendererTask(boolean, javafx.scene.image.PixelWriter, int, int, 
- * double, double, double, double, double, double, double, double, boolean) 
- * constructor} for parameters list. The task returns time in milliseconds as 
- * its calculated value.
- * 
+ * JavaFX task rendering Mandelbrot set with a {@link MandelbrotSetRenderer},
+ * see its constructor for parameters. The task returns time in milliseconds
+ * as its calculated value. Progress of the renderer is reported as progress
+ * of the task and cancelling the task stops the renderer.
  * <p><i>
  * This source code is provided to illustrate the usage of a given feature
  * or technique and has been deliberately simplified. Additional steps
  * required for a production-quality application, such as security checks,
  * input validation and proper error handling, might not be present in
  * this sample code.</i>
- * 
- * @author Alexander Kouznetsov, Tristan Yan
  */
 class MandelbrotSetTask extends Task<Long> {
-    
-    /**
-     * Calculation times, deliberately choose it as 256 because we will use the
-     * count to calculate Color
-     */
-    private static final int CAL_MAX_COUNT = 256;
 
-    /**
-     * This is the square of max radius, Mandelbrot set contained in the closed
-     * disk of radius 2 around the origin plus some area around, so 
-     * LENGTH_BOUNDARY is 6.
-     */
-    private static final double LENGTH_BOUNDARY = 6d;
+    private final MandelbrotSetRenderer renderer;
 
     /**
-     * For antialiasing we break each pixel into 3x3 grid and interpolate 
-     * between values calculated on those grid positions
+     * See {@link MandelbrotSetRenderer#MandelbrotSetRenderer(boolean,
+     * demo.parallel.OffscreenImage, int, int, double, double, double,
+     * double, double, double, double, double, boolean,
+     * demo.parallel.MandelbrotSetRenderer.Engine,
+     * demo.parallel.FractalFormula, java.math.BigDecimal,
+     * java.math.BigDecimal, double)}
      */
-    private static final int ANTIALIASING_BASE = 3;
-    
-    /**
-     * Sequential vs. parallel calculation mode
-     */
-    private final boolean parallel;
-    
-    /**
-     * Antialiased mode flag
-     */
-    private final boolean antialiased;
-    
-    /**
-     * Dimension of the area
-     */
-    private final int width, height;
-    
-    /**
-     * Rectangle range to exclude from calculations. Used to skip calculations
-     * for parts of MandelbrotSet that are already calculated.
-     */
-    private final double minX, minY, maxX, maxY;
-    
-    /**
-     * Real and imaginary part of min and max number in the set we need
-     * calculate
-     */
-    private final double minR, minI, maxR, maxI;
-    
+    public MandelbrotSetTask(boolean parallel, OffscreenImage image, int width, int height, double minR, double minI, double maxR, double maxI, double minX, double minY, double maxX, double maxY, boolean fast, MandelbrotSetRenderer.Engine engine, FractalFormula formula, BigDecimal centerR, BigDecimal centerI, double scale) {
+        renderer = new MandelbrotSetRenderer(parallel, image, width, height, minR, minI, maxR, maxI,
+                minX, minY, maxX, maxY, fast, engine, formula, centerR, centerI, scale);
+        renderer.setProgressListener(this::updateProgress);
+        updateProgress(0, 0);
+    }
+
     /**
-     * Pixel writer to use for writing calculated pixels
+     * @return whether new pixels were written to the image
      */
-    private final PixelWriter pixelWriter;
-    
+    public boolean hasUpdates() {
+        return renderer.hasUpdates();
+    }
+
     /**
-     * Flag indicating that some new pixels were calculated
+     * Clears the updates flag
      */
-    private volatile boolean hasUpdates;
-    
+    public void clearHasUpdates() {
+        renderer.clearHasUpdates();
+    }
+
     /**
-     * Start time of the task in milliseconds
+     * @return true if task is parallel
      */
-    private volatile long startTime = -1;
-    
+    public boolean isParallel() {
+        return renderer.isParallel();
+    }
+
     /**
-     * Total time of the task in milliseconds
+     * @return fractal formula calculated by this task
      */
-    private volatile long taskTime = -1;
-    
+    public FractalFormula getFormula() {
+        return renderer.getFormula();
+    }
+
     /**
-     * Progress of the task
+     * @return palette the image is currently colored with
      */
-    private final AtomicInteger progress = new AtomicInteger(0);
+    public Palette getPalette() {
+        return renderer.getPalette();
+    }
 
     /**
-     * Creates a task to render a MandelBrot set into an image using given
-     * PixelWriter with given dimensions of the image, given real and imaginary
-     * values range and given rectangular area to skip. Also there is a switch
-     * that disables more computational-extensive antialiasing mode.
-     * @param parallel parallel vs. sequential switch
-     * @param pixelWriter target to write pixels to
-     * @param width width of the image area
-     * @param height height of the image area
-     * @param minR min real value of the area
-     * @param minI min imaginary value of the area
-     * @param maxR max real value of the area
-     * @param maxI max imaginary value of the area
-     * @param minX min x value of the rectangular area to skip
-     * @param minY min y value of the rectangular area to skip
-     * @param maxX max x value of the rectangular area to skip
-     * @param maxY max y value of the rectangular area to skip
-     * @param fast fast mode disables antialiasing
+     * @return engine used by this task, may differ from the requested one
+     * when it is not available
      */
-    public MandelbrotSetTask(boolean parallel, PixelWriter pixelWriter, int width, int height, double minR, double minI, double maxR, double maxI, double minX, double minY, double maxX, double maxY, boolean fast) {
-        this.parallel = parallel;
-        this.pixelWriter = pixelWriter;
-        this.width = width;
-        this.height = height;
-        this.maxX = maxX;
-        this.minX = minX;
-        this.maxY = maxY;
-        this.minY = minY;
-        this.minR = minR;
-        this.maxR = maxR;
-        this.minI = minI;
-        this.maxI = maxI;
-        this.antialiased = !fast;
-        updateProgress(0, 0);
+    public MandelbrotSetRenderer.Engine getEngine() {
+        return renderer.getEngine();
     }
 
     /**
-     * 
-     * @return whether new pixels were written to the image
+     * See {@link MandelbrotSetRenderer#coversWholeImage()}
      */
-    public boolean hasUpdates() {
-        return hasUpdates;
+    public boolean coversWholeImage() {
+        return renderer.coversWholeImage();
     }
 
     /**
-     * @return true if task is parallel
+     * See {@link MandelbrotSetRenderer#setPalette(demo.parallel.Palette, int)}
      */
-    public boolean isParallel() {
-        return parallel;
+    public void setPalette(Palette palette, int shift) {
+        renderer.setPalette(palette, shift);
     }
 
     /**
-     * Clears the updates flag
+     * See {@link MandelbrotSetRenderer#setTileSize(int)}
      */
-    public void clearHasUpdates() {
-        hasUpdates = false;
+    public void setTileSize(int tileSize) {
+        renderer.setTileSize(tileSize);
     }
 
     /**
-     * {@inheritDoc}
+     * See {@link MandelbrotSetRenderer#setFocus(double, double)}
      */
-    @Override
-    protected void failed() {
-        super.failed();
-        getException().printStackTrace(System.err);
+    public void setFocus(double x, double y) {
+        renderer.setFocus(x, y);
     }
 
     /**
-     * Returns current task execution time while task is running and total 
-     * task time when task is finished
-     * @return task time in milliseconds
+     * See {@link MandelbrotSetRenderer#setValidPixels(demo.parallel.PixelMask)}
      */
-    public long getTime() {
-        if (taskTime != -1) {
-            return taskTime;
-        }
-        if (startTime == -1) {
-            return 0;
-        }
-        return System.currentTimeMillis() - startTime;
+    public void setValidPixels(PixelMask validPixels) {
+        renderer.setValidPixels(validPixels);
     }
 
     /**
-     * {@inheritDoc}
+     * See {@link MandelbrotSetRenderer#setZoomedFrom(demo.parallel.MandelbrotSetRenderer, int, int, double)}
      */
-    @Override
-    protected Long call() throws Exception {
-        synchronized(pixelWriter) {
-            // Prepares an image 
-            for (int x = 0; x < width; x++) {
-                for (int y = 0; y < height; y++) {
-                    pixelWriter.setColor(x, y, Color.TRANSPARENT);
-                }
-            }
-        }
-        startTime = System.currentTimeMillis();
-        
-        // We do horizontal lines in parallel when asked
-        IntStream yStream = IntStream.range(0, height);
-        if (parallel) {
-            yStream = yStream.parallel();
-        } else {
-            yStream = yStream.sequential();
-        }
-        updateProgress(0, height);
-        yStream.forEach((int y) -> {
-            
-            // We do pixels in horizontal lines always sequentially
-            for (int x = 0; x < width; x++) {
-                
-                // Skip excluded rectangular area
-                if (!(x >= maxX || x < minX || y >= maxY || y < minY)) {
-                    continue;
-                }
-                Color c;
-                if (antialiased) {
-                    c = calcAntialiasedPixel(x, y);
-                } else {
-                    c = calcPixel(x, y);
-                }
-                if (isCancelled()) {
-                    return;
-                }
-                synchronized(pixelWriter) {
-                    pixelWriter.setColor(x, y, c);
-                }
-                hasUpdates = true;
-            }
-            updateProgress(progress.incrementAndGet(), height);
-        });
-        taskTime = getTime();
-        return taskTime;
+    public boolean setZoomedFrom(MandelbrotSetTask previous, int x, int y, double byScale) {
+        return renderer.setZoomedFrom(previous.renderer, x, y, byScale);
     }
 
     /**
-     * Calculates number of iterations a complex quadratic polynomials
-     * stays within a disk of some finite radius for a given complex number.
-     * 
-     * This number is used to choose a color for this pixel for precalculated 
-     * color tables.
-     *
-     * @param comp a complex number used for calculation
-     * @return number of iterations a value stayed within a given disk.
+     * See {@link MandelbrotSetRenderer#setTileCache(demo.parallel.TileCache)}
      */
-    private int calc(Complex comp) {
-        int count = 0;
-        Complex c = new Complex(0, 0);
-        do {
-            c = c.times(c).plus(comp);
-            count++;
-        } while (count < CAL_MAX_COUNT && c.lengthSQ() < LENGTH_BOUNDARY);
-        return count;
+    public void setTileCache(TileCache tileCache) {
+        renderer.setTileCache(tileCache);
     }
 
     /**
-     * Calculates a color of a given pixel on the image using 
-     * {@link #calc(demo.parallel.Complex) } method.
-     * @param x x coordinate of the pixel in the image
-     * @param y y coordinate of the pixel in the image
-     * @return calculated color of the pixel
+     * See {@link MandelbrotSetRenderer#setProgressive(boolean)}
      */
-    private Color calcPixel(double x, double y) {
-        double re = (minR * (width - x) + x * maxR) / width;
-        double im = (minI * (height - y) + y * maxI) / height;
-        Complex calPixel = new Complex(re, im);
-        return getColor(calc(calPixel));
+    public void setProgressive(boolean progressive) {
+        renderer.setProgressive(progressive);
     }
 
     /**
-     * Calculates antialised color of a given pixel on the image by dividing
-     * real and imaginary value ranges of a pixel by {@link #ANTIALIASING_BASE}
-     * and doing interpolation between calculated values
-     * @param x x coordinate of the pixel in the image
-     * @param y y coordinate of the pixel in the image
-     * @return calculated color of the pixel
+     * Colors the image again from the raw iteration counts, see
+     * {@link MandelbrotSetRenderer#recolor(demo.parallel.Palette, int)}.
+     * Must be called on the JavaFX Application Thread after the task
+     * succeeded.
+     * @param palette palette to color the image with
+     * @param shift number of palette entries to rotate the palette by
+     * @throws IllegalStateException if the task hasn't succeeded
      */
-    private Color calcAntialiasedPixel(int x, int y) {
-        double step = 1d / ANTIALIASING_BASE;
-        double N = ANTIALIASING_BASE * ANTIALIASING_BASE;
-        double r = 0, g = 0, b = 0;
-        for (int i = 0; i < ANTIALIASING_BASE; i++) {
-            for (int j = 0; j < ANTIALIASING_BASE; j++) {
-                Color c = calcPixel(x + step * (i + 0.5) - 0.5, y + step * (j + 0.5) - 0.5);
-                r += c.getRed() / N;
-                g += c.getGreen() / N;
-                b += c.getBlue() / N;
-            }
+    public void recolor(Palette palette, int shift) {
+        if (getState() != State.SUCCEEDED) {
+            throw new IllegalStateException("Task is not finished: " + getState());
         }
-        return new Color(clamp(r), clamp(g), clamp(b), 1);
+        renderer.recolor(palette, shift);
     }
 
     /**
-     * Clamps the value in 0..1 interval
-     * @param val value to clamp
-     * @return value in 0..1 interval
+     * Returns current task execution time while task is running and total
+     * task time when task is finished
+     * @return task time in milliseconds
      */
-    private double clamp(double val) {
-        return val > 1 ? 1 : val < 0 ? 0 : val;
+    public long getTime() {
+        return renderer.getTime();
     }
 
     /**
-     * Returns a color for a given iteration count.
-     * @param count number of iterations return by 
-     * {@link #calc(demo.parallel.Complex)} method
-     * @return color from pre-calculated table
+     * {@inheritDoc}
      */
-    private Color getColor(int count) {
-        if (count >= colors.length) {
-            return Color.BLACK;
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            renderer.cancel();
         }
-        return colors[count];
+        return cancelled;
     }
-    
+
     /**
-     * Pre-calculated colors table
+     * {@inheritDoc}
      */
-    static final Color[] colors = new Color[256];
+    @Override
+    protected void failed() {
+        super.failed();
+        getException().printStackTrace(System.err);
+    }
 
-    static {
-        
-        /**
-         * Color stops for colors table: color values
-         */
-        Color[] cc = {
-            Color.rgb(40, 0, 0),
-            Color.BLUE,
-            Color.WHITE,
-            Color.BLUE,
-            Color.rgb(100, 0, 0),
-            Color.BLUE,
-            Color.rgb(50, 0, 0)
-        };
-        
-        /**
-         * Color stops for colors table: relative position in the table
-         */
-        double[] cp = {
-            0, 0.17, 0.25, 0.30, 0.5, 0.75, 1,};
-        
-        /**
-         * Color table population
-         */
-        int j = 0;
-        for (int i = 0; i < colors.length; i++) {
-            double p = (double) i / (colors.length - 1);
-            if (p > cp[j + 1]) {
-                j++;
-            }
-            double val = (p - cp[j]) / (cp[j + 1] - cp[j]);
-            colors[i] = cc[j].interpolate(cc[j + 1], val);
-        }
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Long call() throws Exception {
+        return renderer.render();
     }
 }
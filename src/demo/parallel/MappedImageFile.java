@@ -0,0 +1,119 @@
+package demo.parallel;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Image file of 8-bit RGB pixels line by line without any header, written
+ * and read through memory mapping. Only the lines being accessed are
+ * mapped, so images may be far larger than the memory, and lines may be
+ * written in any order, e.g. by a render resumed after a crash.
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ */
+public final class MappedImageFile implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final int width, height;
+
+    /**
+     * Opens an image file, creating it if it doesn't exist. Contents of an
+     * existing file are kept.
+     * @param path file
+     * @param width width of the image
+     * @param height height of the image
+     * @throws IOException if the file can't be opened
+     */
+    public MappedImageFile(Path path, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0 || 3L * width > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported image size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long size = 3L * width * height;
+        if (channel.size() > size) {
+            channel.truncate(size);
+        }
+    }
+
+    /**
+     * @return width of the image
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height of the image
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Writes lines and flushes them to the disk, so they survive a crash
+     * once this method returns.
+     * @param pixels ARGB values line by line, alpha is ignored
+     * @param offset index of the first pixel of the first line
+     * @param y first line to write
+     * @param count number of lines
+     * @throws IOException if writing fails
+     */
+    public void writeLines(int[] pixels, int offset, int y, int count) throws IOException {
+        MappedByteBuffer lines = map(y, count, FileChannel.MapMode.READ_WRITE);
+        byte[] rgb = new byte[3 * width];
+        for (int line = 0; line < count; line++) {
+            int index = offset + line * width;
+            for (int x = 0, i = 0; x < width; x++, i += 3) {
+                int argb = pixels[index + x];
+                rgb[i] = (byte) (argb >> 16);
+                rgb[i + 1] = (byte) (argb >> 8);
+                rgb[i + 2] = (byte) argb;
+            }
+            lines.put(rgb);
+        }
+        lines.force();
+    }
+
+    /**
+     * Reads lines.
+     * @param pixels ARGB values line by line, opaque
+     * @param offset index of the first pixel of the first line
+     * @param y first line to read
+     * @param count number of lines
+     * @throws IOException if reading fails
+     */
+    public void readLines(int[] pixels, int offset, int y, int count) throws IOException {
+        MappedByteBuffer lines = map(y, count, FileChannel.MapMode.READ_ONLY);
+        byte[] rgb = new byte[3 * width];
+        for (int line = 0; line < count; line++) {
+            lines.get(rgb);
+            int index = offset + line * width;
+            for (int x = 0, i = 0; x < width; x++, i += 3) {
+                pixels[index + x] = 0xFF000000 | (rgb[i] & 0xFF) << 16 | (rgb[i + 1] & 0xFF) << 8
+                        | (rgb[i + 2] & 0xFF);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private MappedByteBuffer map(int y, int count, FileChannel.MapMode mode) throws IOException {
+        if (y < 0 || count < 0 || y + count > height || 3L * width * count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid lines " + y + "-" + (y + count) + " of " + height);
+        }
+        return channel.map(mode, 3L * width * y, 3L * width * count);
+    }
+}
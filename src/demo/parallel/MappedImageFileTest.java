@@ -0,0 +1,54 @@
+package demo.parallel;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedImageFileTest {
+
+    @TempDir
+    Path directory;
+
+    private static int[] lines(int width, int count, int seed) {
+        int[] pixels = new int[width * count];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | (i * 0x9E3779B1 + seed) & 0xFFFFFF;
+        }
+        return pixels;
+    }
+
+    // Строки, записанные в разном порядке, читаются после повторного открытия
+    @Test
+    public void testWriteReopenRead() throws IOException {
+        Path path = directory.resolve("image.rgb");
+        try (MappedImageFile file = new MappedImageFile(path, 37, 20)) {
+            file.writeLines(lines(37, 10, 2), 0, 10, 10);
+        }
+        try (MappedImageFile file = new MappedImageFile(path, 37, 20)) {
+            file.writeLines(lines(37, 10, 1), 0, 0, 10);
+        }
+        assertEquals(3 * 37 * 20, Files.size(path));
+        try (MappedImageFile file = new MappedImageFile(path, 37, 20)) {
+            int[] pixels = new int[37 * 20];
+            file.readLines(pixels, 0, 0, 20);
+            int[] top = lines(37, 10, 1);
+            int[] bottom = lines(37, 10, 2);
+            for (int i = 0; i < top.length; i++) {
+                assertEquals(top[i], pixels[i]);
+                assertEquals(bottom[i], pixels[top.length + i]);
+            }
+        }
+    }
+
+    @Test
+    public void testLinesOutOfImage() throws IOException {
+        try (MappedImageFile file = new MappedImageFile(directory.resolve("image.rgb"), 10, 10)) {
+            assertThrows(IllegalArgumentException.class, () -> file.writeLines(new int[100], 0, 5, 6));
+            assertThrows(IllegalArgumentException.class, () -> file.readLines(new int[100], 0, -1, 1));
+        }
+    }
+}
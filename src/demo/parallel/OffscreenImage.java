@@ -30,8 +30,22 @@
  */
 package demo.parallel;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 /**
- * Offscreen image produced by multi-threaded rendering engine.
+ * Offscreen image produced by multi-threaded rendering engine. Pixels are
+ * premultiplied ARGB values kept line by line in a direct buffer, so the
+ * buffer can be displayed without copying, e.g. through 
+ * {@code javafx.scene.image.PixelBuffer}.
+ * <p>
+ * Worker threads write blocks of pixels without any locking, as blocks
+ * written concurrently never overlap. Written blocks are collected into
+ * dirty regions per band of {@link #BAND_HEIGHT} lines, which the display
+ * takes to update only what has changed. Separate bands keep lines written
+ * by different workers far apart from merging into one big region.
  * <p><i>
  * This source code is provided to illustrate the usage of a given feature
  * or technique and has been deliberately simplified. Additional steps
@@ -41,12 +55,50 @@ package demo.parallel;
  * @author akouznet
  */
 public class OffscreenImage {
+
+    /**
+     * Dirty region bounds are packed into 16 bits each
+     */
+    private static final int MAX_SIZE = 0xFFFF;
+
+    /**
+     * Packed empty dirty region: min bounds at max and max bounds at zero
+     */
+    private static final long EMPTY = pack(MAX_SIZE, MAX_SIZE, 0, 0);
+
+    /**
+     * Number of lines in a band with its own dirty region
+     */
+    static final int BAND_HEIGHT = 16;
+
     private final int width;
     private final int height;
 
+    /**
+     * Pixels of the image, premultiplied ARGB values line by line
+     */
+    private final IntBuffer pixels;
+
+    /**
+     * Bounding boxes of pixels written into each band since the last call
+     * to {@link #takeDirtyRegion(int)}: min x, min y, max x, max y 
+     * (exclusive) packed into 16 bits each
+     */
+    private final AtomicLongArray dirty;
+
     public OffscreenImage(int width, int height) {
+        if (width < 0 || height < 0 || width > MAX_SIZE || height > MAX_SIZE
+                || (long) width * height * Integer.BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported image size " + width + "x" + height);
+        }
         this.width = width;
         this.height = height;
+        this.pixels = ByteBuffer.allocateDirect(width * height * Integer.BYTES)
+                .order(ByteOrder.nativeOrder()).asIntBuffer();
+        this.dirty = new AtomicLongArray((height + BAND_HEIGHT - 1) / BAND_HEIGHT);
+        for (int band = 0; band < dirty.length(); band++) {
+            dirty.set(band, EMPTY);
+        }
     }
 
     public int getWidth() {
@@ -56,7 +108,98 @@ public class OffscreenImage {
     public int getHeight() {
         return height;
     }
-    
-    
-    
+
+    /**
+     * @return direct buffer with pixels of the image, premultiplied ARGB
+     * values line by line
+     */
+    public IntBuffer getBuffer() {
+        return pixels;
+    }
+
+    /**
+     * @param x x coordinate of a pixel
+     * @param y y coordinate of a pixel
+     * @return premultiplied ARGB value of the pixel
+     */
+    public int getArgb(int x, int y) {
+        return pixels.get(y * width + x);
+    }
+
+    /**
+     * Writes a block of pixels. May be called from any thread, concurrent
+     * calls must write blocks which don't overlap.
+     * @param x x coordinate of the block
+     * @param y y coordinate of the block
+     * @param w width of the block
+     * @param h height of the block
+     * @param block premultiplied ARGB values of the block line by line
+     */
+    public void setPixels(int x, int y, int w, int h, int[] block) {
+        for (int line = 0; line < h; line++) {
+            pixels.put((y + line) * width + x, block, line * w, w);
+        }
+        markDirty(x, y, x + w, y + h);
+    }
+
+    /**
+     * Makes the whole image transparent
+     */
+    public void clear() {
+        int[] transparent = new int[width];
+        for (int y = 0; y < height; y++) {
+            pixels.put(y * width, transparent);
+        }
+        markDirty(0, 0, width, height);
+    }
+
+    /**
+     * @return number of bands with separate dirty regions
+     */
+    public int getBandCount() {
+        return dirty.length();
+    }
+
+    /**
+     * Returns bounds of the pixels written into a band since the last call
+     * and starts collecting a new dirty region for the band.
+     * @param band index of the band, lines from {@code band * BAND_HEIGHT}
+     * @return x, y, width and height of the region, or null if nothing was
+     * written
+     */
+    public int[] takeDirtyRegion(int band) {
+        long region = dirty.getAndSet(band, EMPTY);
+        if (region == EMPTY) {
+            return null;
+        }
+        int x0 = (int) (region >>> 48) & MAX_SIZE;
+        int y0 = (int) (region >>> 32) & MAX_SIZE;
+        int x1 = (int) (region >>> 16) & MAX_SIZE;
+        int y1 = (int) region & MAX_SIZE;
+        return new int[] {x0, y0, x1 - x0, y1 - y0};
+    }
+
+    /**
+     * Adds a rectangle to the dirty regions of the bands it crosses without
+     * locking
+     */
+    private void markDirty(int x0, int y0, int x1, int y1) {
+        for (int band = y0 / BAND_HEIGHT; band * BAND_HEIGHT < y1; band++) {
+            int bandY0 = Math.max(y0, band * BAND_HEIGHT);
+            int bandY1 = Math.min(y1, (band + 1) * BAND_HEIGHT);
+            long prev, next;
+            do {
+                prev = dirty.get(band);
+                next = pack(
+                        Math.min(x0, (int) (prev >>> 48) & MAX_SIZE),
+                        Math.min(bandY0, (int) (prev >>> 32) & MAX_SIZE),
+                        Math.max(x1, (int) (prev >>> 16) & MAX_SIZE),
+                        Math.max(bandY1, (int) prev & MAX_SIZE));
+            } while (next != prev && !dirty.compareAndSet(band, prev, next));
+        }
+    }
+
+    private static long pack(int x0, int y0, int x1, int y1) {
+        return ((long) x0 << 48) | ((long) y0 << 32) | ((long) x1 << 16) | y1;
+    }
 }
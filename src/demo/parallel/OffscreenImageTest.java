@@ -0,0 +1,71 @@
+package demo.parallel;
+
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffscreenImageTest {
+
+    @Test
+    public void testSetPixels() {
+        OffscreenImage image = new OffscreenImage(8, 4);
+        image.setPixels(2, 1, 3, 2, new int[] {1, 2, 3, 4, 5, 6});
+        assertEquals(1, image.getArgb(2, 1));
+        assertEquals(3, image.getArgb(4, 1));
+        assertEquals(4, image.getArgb(2, 2));
+        assertEquals(6, image.getArgb(4, 2));
+        assertEquals(0, image.getArgb(5, 1));
+        assertTrue(image.getBuffer().isDirect());
+    }
+
+    // Грязные области собираются по полосам строк и сбрасываются
+    @Test
+    public void testDirtyRegions() {
+        OffscreenImage image = new OffscreenImage(100, 50);
+        assertEquals(4, image.getBandCount());
+        for (int band = 0; band < image.getBandCount(); band++) {
+            assertNull(image.takeDirtyRegion(band));
+        }
+        image.setPixels(10, 5, 2, 1, new int[2]);
+        image.setPixels(40, 7, 1, 3, new int[3]);
+        image.setPixels(0, 15, 4, 2, new int[8]);
+        assertArrayEquals(new int[] {0, 5, 41, 11}, image.takeDirtyRegion(0));
+        assertArrayEquals(new int[] {0, 16, 4, 1}, image.takeDirtyRegion(1));
+        assertNull(image.takeDirtyRegion(0));
+        assertNull(image.takeDirtyRegion(2));
+        image.clear();
+        assertArrayEquals(new int[] {0, 48, 100, 2}, image.takeDirtyRegion(3));
+    }
+
+    // Строки пишутся параллельно без блокировок
+    @Test
+    public void testConcurrentWrites() {
+        int width = 300, height = 200;
+        OffscreenImage image = new OffscreenImage(width, height);
+        IntStream.range(0, height).parallel().forEach(y -> {
+            int[] line = new int[width];
+            for (int x = 0; x < width; x++) {
+                line[x] = y * width + x;
+            }
+            image.setPixels(0, y, width, 1, line);
+        });
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(y * width + x, image.getArgb(x, y));
+            }
+        }
+        for (int band = 0; band < image.getBandCount(); band++) {
+            int y = band * OffscreenImage.BAND_HEIGHT;
+            assertArrayEquals(new int[] {0, y, width, Math.min(height - y, OffscreenImage.BAND_HEIGHT)},
+                    image.takeDirtyRegion(band));
+        }
+    }
+
+    @Test
+    public void testTooLarge() {
+        assertThrows(IllegalArgumentException.class, () -> new OffscreenImage(70_000, 10));
+        // Каждая сторона допустима, но буфер не помещается в int
+        assertThrows(IllegalArgumentException.class, () -> new OffscreenImage(40_000, 40_000));
+    }
+}
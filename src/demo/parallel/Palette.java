@@ -0,0 +1,143 @@
+package demo.parallel;
+
+/**
+ * Color palettes for iteration counts. Each palette is a pre-calculated
+ * table of premultiplied ARGB values interpolated between color stops, so
+ * coloring a pixel is a table lookup and doesn't allocate.
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ */
+public enum Palette {
+
+    /**
+     * Original palette of the demo
+     */
+    CLASSIC(new int[] {
+            0x280000,
+            0x0000FF,
+            0xFFFFFF,
+            0x0000FF,
+            0x640000,
+            0x0000FF,
+            0x320000},
+            new double[] {0, 0.17, 0.25, 0.30, 0.5, 0.75, 1}),
+
+    /**
+     * Black through red and yellow to white and back
+     */
+    FIRE(new int[] {
+            0x140000,
+            0xFF0000,
+            0xFFFF00,
+            0xFFFFFF,
+            0xFFA500,
+            0x3C0000},
+            new double[] {0, 0.15, 0.3, 0.4, 0.7, 1}),
+
+    /**
+     * Shades of blue and cyan
+     */
+    OCEAN(new int[] {
+            0x000A28,
+            0x005AA0,
+            0x00FFFF,
+            0xFFFFFF,
+            0x003C78,
+            0x000A28},
+            new double[] {0, 0.2, 0.35, 0.45, 0.75, 1}),
+
+    /**
+     * Grayscale
+     */
+    GRAY(new int[] {
+            0x1E1E1E,
+            0xFFFFFF,
+            0x1E1E1E},
+            new double[] {0, 0.5, 1});
+
+    /**
+     * Color of points inside of the set as a premultiplied ARGB value
+     */
+    static final int BLACK = 0xFF000000;
+
+    /**
+     * Number of colors in a table
+     */
+    static final int SIZE = 256;
+
+    /**
+     * Pre-calculated colors table, premultiplied ARGB values
+     */
+    private final int[] colors = new int[SIZE];
+
+    /**
+     * @param cc color stops for colors table: opaque RGB values
+     * @param cp color stops for colors table: relative position in the table
+     */
+    private Palette(int[] cc, double[] cp) {
+        int j = 0;
+        for (int i = 0; i < colors.length; i++) {
+            double p = (double) i / (colors.length - 1);
+            if (p > cp[j + 1]) {
+                j++;
+            }
+            double val = (p - cp[j]) / (cp[j + 1] - cp[j]);
+            colors[i] = interpolate(cc[j], cc[j + 1], val);
+        }
+    }
+
+    /**
+     * Interpolates between two opaque colors the same way
+     * {@code javafx.scene.paint.Color.interpolate} does,
+     * in float components, without depending on the JavaFX toolkit.
+     * @param from RGB value of the start color
+     * @param to RGB value of the end color
+     * @param t position between the colors, 0 to 1
+     * @return premultiplied ARGB value
+     */
+    private static int interpolate(int from, int to, double t) {
+        if (t <= 0) {
+            return 0xFF000000 | from;
+        }
+        if (t >= 1) {
+            return 0xFF000000 | to;
+        }
+        float ft = (float) t;
+        int argb = 0xFF000000;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            float a = (float) (((from >> shift) & 0xFF) / 255.0);
+            float b = (float) (((to >> shift) & 0xFF) / 255.0);
+            float c = a + (b - a) * ft;
+            argb |= (int) Math.round(c * 255d) << shift;
+        }
+        return argb;
+    }
+
+    /**
+     * Returns a color for a given iteration count.
+     * @param count number of iterations, at least 1
+     * @param maxIterations iteration budget, the table is stretched over it
+     * and counts reaching it are inside of the set
+     * @param shift number of table entries to rotate the table by, for
+     * palette cycling
+     * @return premultiplied ARGB value
+     */
+    int getColor(int count, int maxIterations, int shift) {
+        if (count >= maxIterations) {
+            return BLACK;
+        }
+        return colors[(count * SIZE / maxIterations + shift) % SIZE];
+    }
+
+    /**
+     * @param index index in the table
+     * @return premultiplied ARGB value of the table entry
+     */
+    int get(int index) {
+        return colors[index];
+    }
+}
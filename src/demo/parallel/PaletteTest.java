@@ -0,0 +1,65 @@
+package demo.parallel;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PaletteTest {
+
+    // Премультиплицированный ARGB цвета с тем же округлением, что и у
+    // PixelWriter.setColor
+    static int toArgbPre(Color c) {
+        double opacity = c.getOpacity();
+        int a = (int) Math.round(opacity * 255);
+        int r = (int) Math.round(c.getRed() * 255);
+        int g = (int) Math.round(c.getGreen() * 255);
+        int b = (int) Math.round(c.getBlue() * 255);
+        if (a < 255) {
+            r = (r * a + 127) / 255;
+            g = (g * a + 127) / 255;
+            b = (b * a + 127) / 255;
+        }
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    // Упакованные пиксели совпадают с тем, что записал бы setColor
+    @Test
+    public void testToArgbPre() {
+        assertEquals(0, toArgbPre(Color.TRANSPARENT));
+        assertEquals(0xFF000000, toArgbPre(Color.BLACK));
+        assertEquals(0xFF40FFFF, toArgbPre(Color.rgb(64, 255, 255)));
+        assertEquals(0x80800000, toArgbPre(Color.rgb(255, 0, 0, 128 / 255d)));
+    }
+
+    // Точки множества черные в любой палитре
+    @Test
+    public void testInsideIsBlack() {
+        for (Palette palette : Palette.values()) {
+            assertEquals(Palette.BLACK, palette.getColor(256, 256, 0));
+            assertEquals(Palette.BLACK, palette.getColor(128, 128, 17));
+        }
+    }
+
+    // Таблица растягивается на бюджет итераций и сдвигается по кругу
+    @Test
+    public void testStretchAndShift() {
+        Palette palette = Palette.CLASSIC;
+        assertEquals(palette.get(10), palette.getColor(10, 256, 0));
+        assertEquals(palette.get(20), palette.getColor(10, 128, 0));
+        assertEquals(palette.get(15), palette.getColor(10, 256, 5));
+        assertEquals(palette.get(4), palette.getColor(250, 256, 10));
+    }
+
+    // Цвета непрозрачные, края таблицы совпадают с крайними опорными цветами
+    @Test
+    public void testOpaqueColors() {
+        for (Palette palette : Palette.values()) {
+            for (int i = 0; i < Palette.SIZE; i++) {
+                assertEquals(0xFF, palette.get(i) >>> 24);
+            }
+        }
+        assertEquals(toArgbPre(Color.rgb(40, 0, 0)), Palette.CLASSIC.get(0));
+        assertEquals(toArgbPre(Color.rgb(50, 0, 0)), Palette.CLASSIC.get(Palette.SIZE - 1));
+    }
+}
@@ -0,0 +1,337 @@
+package demo.parallel;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Deep zoom kernel based on perturbation theory. One reference orbit
+ * {@code Z} is calculated with {@link BigDecimal} precision and every pixel
+ * {@code z = Z + d} is iterated as a small {@code double} difference from it:
+ * <pre>
+ * d[n+1] = 2 * Z[n] * d[n] + d[n]² + dc
+ * </pre>
+ * so the cost per pixel is about the same as with plain doubles while the
+ * precision is limited only by the precision of the reference orbit.
+ * <p>
+ * The first iterations are skipped with a series approximation
+ * {@code d[n] = A[n] * dc + B[n] * dc² + C[n] * dc³} whose coefficients
+ * don't depend on the pixel. Pixels whose orbit comes too close to zero
+ * relative to the reference (Pauldelbrot's criterion), or outlives the
+ * reference, are glitched: they are recalculated against a new reference
+ * orbit placed at the glitched pixel.
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ */
+final class PerturbationKernel {
+
+    /**
+     * Returned by {@link #calc(Reference, double, double)} for glitched
+     * pixels
+     */
+    private static final int GLITCH = -1;
+
+    /**
+     * Pixel is glitched when |z|² drops below this fraction of |Z|²
+     */
+    private static final double GLITCH_TOLERANCE = 1e-6;
+
+    /**
+     * Series approximation is used while |C * dc³| stays below this fraction
+     * of |B * dc²| for the farthest pixel
+     */
+    private static final double SERIES_TOLERANCE = 1e-6;
+
+    /**
+     * Max number of additional references created for glitched pixels
+     */
+    private static final int MAX_REFERENCES = 32;
+
+    /**
+     * Dimension of the image
+     */
+    private final int width, height;
+
+    /**
+     * Size of a pixel in the complex plane
+     */
+    private final double scale;
+
+    /**
+     * Center of the image
+     */
+    private final BigDecimal centerR, centerI;
+
+    /**
+     * Precision of reference orbits
+     */
+    private final MathContext mc;
+
+    /**
+     * Reference at the center of the image, with series approximation
+     */
+    private final Reference primary;
+
+    /**
+     * Series approximation coefficients and the number of skipped iterations
+     */
+    private final double ar, ai, br, bi, cr, ci;
+    private final int skipped;
+
+    /**
+     * References created for glitched pixels
+     */
+    private final List<Reference> secondary = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a kernel for an image and calculates its primary reference
+     * orbit.
+     * @param centerR real value of the center of the image
+     * @param centerI imaginary value of the center of the image
+     * @param scale size of a pixel in the complex plane
+     * @param width width of the image
+     * @param height height of the image
+     */
+    PerturbationKernel(BigDecimal centerR, BigDecimal centerI, double scale, int width, int height) {
+        this.centerR = centerR;
+        this.centerI = centerI;
+        this.scale = scale;
+        this.width = width;
+        this.height = height;
+        int digits = Math.max(34, 20 - (int) Math.floor(Math.log10(scale)));
+        this.mc = new MathContext(digits);
+        this.primary = new Reference(0, 0);
+
+        // Series approximation for the farthest sample of the image,
+        // half a pixel is added for antialiasing samples
+        double maxDelta = scale * Math.hypot(width / 2d + 0.5, height / 2d + 0.5);
+        double a0r = 0, a0i = 0, b0r = 0, b0i = 0, c0r = 0, c0i = 0;
+        int n = 0;
+        while (n + 1 < primary.length) {
+            double zr2 = 2 * primary.re[n], zi2 = 2 * primary.im[n];
+            double a1r = zr2 * a0r - zi2 * a0i + 1;
+            double a1i = zr2 * a0i + zi2 * a0r;
+            double b1r = zr2 * b0r - zi2 * b0i + a0r * a0r - a0i * a0i;
+            double b1i = zr2 * b0i + zi2 * b0r + 2 * a0r * a0i;
+            double c1r = zr2 * c0r - zi2 * c0i + 2 * (a0r * b0r - a0i * b0i);
+            double c1i = zr2 * c0i + zi2 * c0r + 2 * (a0r * b0i + a0i * b0r);
+            double bTerm = Math.hypot(b1r, b1i);
+            double cTerm = Math.hypot(c1r, c1i) * maxDelta;
+            if (!Double.isFinite(cTerm) || cTerm > SERIES_TOLERANCE * bTerm) {
+                break;
+            }
+            a0r = a1r; a0i = a1i;
+            b0r = b1r; b0i = b1i;
+            c0r = c1r; c0i = c1i;
+            n++;
+        }
+        ar = a0r; ai = a0i;
+        br = b0r; bi = b0i;
+        cr = c0r; ci = c0i;
+        skipped = n;
+    }
+
+    /**
+     * @return number of iterations skipped with series approximation
+     */
+    int getSkippedIterations() {
+        return skipped;
+    }
+
+    /**
+     * @return number of references created for glitched pixels
+     */
+    int getSecondaryReferenceCount() {
+        return secondary.size();
+    }
+
+    /**
+     * Calculates number of iterations for a given position on the image.
+     * The result has the same meaning as the one of
+     * {@link MandelbrotSetRenderer#calc(double, double)}.
+     * @param x x coordinate in the image, may be fractional
+     * @param y y coordinate in the image, may be fractional
+     * @return number of iterations a value stayed within a given disk
+     */
+    int calc(double x, double y) {
+        double dcr = (x - width / 2d) * scale;
+        double dci = (y - height / 2d) * scale;
+        int count = calc(primary, dcr, dci);
+        if (count != GLITCH) {
+            return count;
+        }
+        for (Reference ref : secondary) {
+            count = calc(ref, dcr, dci);
+            if (count != GLITCH) {
+                return count;
+            }
+        }
+        synchronized (this) {
+            // Some other thread may have added a suitable reference meanwhile
+            for (Reference ref : secondary) {
+                count = calc(ref, dcr, dci);
+                if (count != GLITCH) {
+                    return count;
+                }
+            }
+            if (secondary.size() < MAX_REFERENCES) {
+                Reference ref = new Reference(dcr, dci);
+                secondary.add(ref);
+                count = calc(ref, dcr, dci);
+                if (count != GLITCH) {
+                    return count;
+                }
+            }
+        }
+        // Out of references, the best we have is the primary one
+        return calcIgnoringGlitches(dcr, dci);
+    }
+
+    /**
+     * Iterates a pixel against a reference orbit.
+     * @param ref reference orbit
+     * @param dcr real offset of the pixel from the center of the image
+     * @param dci imaginary offset of the pixel from the center of the image
+     * @return number of iterations or {@link #GLITCH}
+     */
+    private int calc(Reference ref, double dcr, double dci) {
+        return iterate(ref, dcr, dci, true);
+    }
+
+    /**
+     * Iterates a pixel against the primary reference accepting glitches.
+     * @param dcr real offset of the pixel from the center of the image
+     * @param dci imaginary offset of the pixel from the center of the image
+     * @return number of iterations
+     */
+    private int calcIgnoringGlitches(double dcr, double dci) {
+        return iterate(primary, dcr, dci, false);
+    }
+
+    private int iterate(Reference ref, double dcr, double dci, boolean detectGlitches) {
+        // Offset from the reference point
+        dcr -= ref.offsetR;
+        dci -= ref.offsetI;
+        double dr = 0, di = 0;
+        int n = 0;
+        if (ref == primary && skipped > 0) {
+            double dc2r = dcr * dcr - dci * dci;
+            double dc2i = 2 * dcr * dci;
+            double dc3r = dc2r * dcr - dc2i * dci;
+            double dc3i = dc2r * dci + dc2i * dcr;
+            dr = ar * dcr - ai * dci + br * dc2r - bi * dc2i + cr * dc3r - ci * dc3i;
+            di = ar * dci + ai * dcr + br * dc2i + bi * dc2r + cr * dc3i + ci * dc3r;
+            n = skipped;
+        }
+        double[] re = ref.re, im = ref.im, mag = ref.mag;
+        int last = ref.length - 1;
+        while (true) {
+            if (n == MandelbrotSetRenderer.CAL_MAX_COUNT) {
+                return n;
+            }
+            double zr = re[n] + dr;
+            double zi = im[n] + di;
+            double zMag = zr * zr + zi * zi;
+            if (n > 0 && zMag >= MandelbrotSetRenderer.LENGTH_BOUNDARY) {
+                return n;
+            }
+            if (n == last) {
+                // Reference escaped before the pixel did
+                if (detectGlitches) {
+                    return GLITCH;
+                }
+                return continueWithoutReference(zr, zi, ref.cRe + dcr, ref.cIm + dci, n);
+            }
+            if (detectGlitches && zMag < GLITCH_TOLERANCE * mag[n]) {
+                return GLITCH;
+            }
+            double tr = 2 * re[n] + dr;
+            double ti = 2 * im[n] + di;
+            double ndr = tr * dr - ti * di + dcr;
+            di = tr * di + ti * dr + dci;
+            dr = ndr;
+            n++;
+        }
+    }
+
+    /**
+     * Continues iterations of a pixel in plain doubles after its reference
+     * escaped. Only used when no better reference is available.
+     */
+    private static int continueWithoutReference(double zr, double zi, double re, double im, int count) {
+        while (count < MandelbrotSetRenderer.CAL_MAX_COUNT) {
+            double zri = zr * zi;
+            zr = zr * zr - zi * zi + re;
+            zi = zri + zri + im;
+            count++;
+            if (zr * zr + zi * zi >= MandelbrotSetRenderer.LENGTH_BOUNDARY) {
+                return count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reference orbit calculated with {@link BigDecimal} precision and
+     * stored rounded to doubles.
+     */
+    private final class Reference {
+
+        /**
+         * Offset of the reference point from the center of the image
+         */
+        final double offsetR, offsetI;
+
+        /**
+         * Reference point rounded to doubles
+         */
+        final double cRe, cIm;
+
+        /**
+         * Orbit values Z[n] and |Z[n]|²
+         */
+        final double[] re, im, mag;
+
+        /**
+         * Number of orbit values, less than CAL_MAX_COUNT + 1 when the
+         * reference escapes
+         */
+        final int length;
+
+        Reference(double offsetR, double offsetI) {
+            this.offsetR = offsetR;
+            this.offsetI = offsetI;
+            int max = MandelbrotSetRenderer.CAL_MAX_COUNT + 1;
+            re = new double[max];
+            im = new double[max];
+            mag = new double[max];
+            BigDecimal pointRe = centerR.add(new BigDecimal(offsetR), mc);
+            BigDecimal pointIm = centerI.add(new BigDecimal(offsetI), mc);
+            cRe = pointRe.doubleValue();
+            cIm = pointIm.doubleValue();
+            BigDecimal zRe = BigDecimal.ZERO;
+            BigDecimal zIm = BigDecimal.ZERO;
+            int n = 0;
+            while (true) {
+                re[n] = zRe.doubleValue();
+                im[n] = zIm.doubleValue();
+                mag[n] = re[n] * re[n] + im[n] * im[n];
+                if (n + 1 == max || mag[n] >= MandelbrotSetRenderer.LENGTH_BOUNDARY) {
+                    break;
+                }
+                BigDecimal zRe2 = zRe.multiply(zRe, mc);
+                BigDecimal zIm2 = zIm.multiply(zIm, mc);
+                BigDecimal zReIm = zRe.multiply(zIm, mc);
+                zRe = zRe2.subtract(zIm2, mc).add(pointRe, mc);
+                zIm = zReIm.add(zReIm, mc).add(pointIm, mc);
+                n++;
+            }
+            length = n + 1;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package demo.parallel;
+
+import java.math.BigDecimal;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PerturbationKernelTest {
+
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+
+    // На небольшом увеличении результат совпадает с обычным double ядром
+    @Test
+    public void testMatchesDoubleKernelAtShallowZoom() {
+        double centerR = -0.6512327080862016;
+        double centerI = -0.47975432023845905;
+        double scale = 1.6e-7;
+        PerturbationKernel kernel = new PerturbationKernel(
+                new BigDecimal(centerR), new BigDecimal(centerI), scale, WIDTH, HEIGHT);
+        int same = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double re = centerR + (x - WIDTH / 2d) * scale;
+                double im = centerI + (y - HEIGHT / 2d) * scale;
+                if (kernel.calc(x, y) == MandelbrotSetRenderer.calc(re, im)) {
+                    same++;
+                }
+            }
+        }
+        assertTrue(same >= WIDTH * HEIGHT * 0.99, "same counts: " + same);
+    }
+
+    // Глубже 1e-15 изображение не вырождается в однотонное
+    @Test
+    public void testDeepZoomHasDetail() {
+        // Окрестность точки Мисюревича c = i
+        BigDecimal centerR = new BigDecimal("0.00000000000000000000000003");
+        BigDecimal centerI = new BigDecimal("1.00000000000000000000000002");
+        PerturbationKernel kernel = new PerturbationKernel(centerR, centerI, 1e-25, WIDTH, HEIGHT);
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int y = 0; y < HEIGHT; y += 4) {
+            for (int x = 0; x < WIDTH; x += 4) {
+                int count = kernel.calc(x, y);
+                assertTrue(count >= 1 && count <= MandelbrotSetRenderer.CAL_MAX_COUNT);
+                min = Math.min(min, count);
+                max = Math.max(max, count);
+            }
+        }
+        assertTrue(max > min, "flat image, count " + min);
+    }
+
+    @Test
+    public void testReferencePixelMatchesBigDecimalOrbit() {
+        BigDecimal centerR = new BigDecimal("-1.25");
+        BigDecimal centerI = new BigDecimal("0.35");
+        PerturbationKernel kernel = new PerturbationKernel(centerR, centerI, 1e-3, WIDTH, HEIGHT);
+        assertEquals(MandelbrotSetRenderer.calcWithoutShortcuts(-1.25, 0.35),
+                kernel.calc(WIDTH / 2d, HEIGHT / 2d));
+    }
+}
@@ -0,0 +1,146 @@
+package demo.parallel;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bitmap of pixels of the image which show final results. A render task
+ * marks pixels as it finishes them, so when it is cancelled the mask tells
+ * which pixels are worth keeping. The mask moves together with the image
+ * when it is panned and the next task calculates only the pixels which
+ * are not set.
+ * <p>
+ * Every line starts with a new word, bits are set atomically, so workers
+ * may mark different pixels of the same word concurrently.
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ */
+public final class PixelMask {
+
+    private final int width, height;
+    private final int wordsPerLine;
+    private final AtomicLongArray bits;
+
+    /**
+     * Creates a mask with no pixels set
+     * @param width width of the image
+     * @param height height of the image
+     */
+    public PixelMask(int width, int height) {
+        this.width = width;
+        this.height = height;
+        wordsPerLine = (width + 63) >>> 6;
+        bits = new AtomicLongArray(wordsPerLine * height);
+    }
+
+    /**
+     * @return width of the image
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height of the image
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param x x coordinate of the pixel
+     * @param y y coordinate of the pixel
+     * @return true if the pixel is set
+     */
+    public boolean get(int x, int y) {
+        return (bits.get(y * wordsPerLine + (x >>> 6)) & (1L << x)) != 0;
+    }
+
+    /**
+     * Sets all pixels of a rectangle.
+     * @param x x coordinate of the rectangle
+     * @param y y coordinate of the rectangle
+     * @param w width of the rectangle
+     * @param h height of the rectangle
+     */
+    public void set(int x, int y, int w, int h) {
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+        int firstWord = x >>> 6;
+        int lastWord = (x + w - 1) >>> 6;
+        long firstMask = -1L << x;
+        long lastMask = -1L >>> (63 - ((x + w - 1) & 63));
+        for (int line = y; line < y + h; line++) {
+            int base = line * wordsPerLine;
+            for (int word = firstWord; word <= lastWord; word++) {
+                long mask = -1L;
+                if (word == firstWord) {
+                    mask &= firstMask;
+                }
+                if (word == lastWord) {
+                    mask &= lastMask;
+                }
+                long m = mask;
+                bits.getAndUpdate(base + word, value -> value | m);
+            }
+        }
+    }
+
+    /**
+     * @return number of pixels set
+     */
+    public int count() {
+        int count = 0;
+        for (int i = 0; i < bits.length(); i++) {
+            count += Long.bitCount(bits.get(i));
+        }
+        return count;
+    }
+
+    /**
+     * @return true if no pixel is set
+     */
+    public boolean isEmpty() {
+        for (int i = 0; i < bits.length(); i++) {
+            if (bits.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a mask of the image moved by a given offset, possibly to an
+     * image of another size. Offsets are whole pixels, pixels drawn from
+     * between pixels are resampled and can't be kept.
+     * @param newWidth width of the new image
+     * @param newHeight height of the new image
+     * @param dx horizontal offset, pixel x of the new image shows pixel
+     * x - dx of this one
+     * @param dy vertical offset, pixel y of the new image shows pixel
+     * y - dy of this one
+     * @return new mask
+     */
+    public PixelMask shifted(int newWidth, int newHeight, int dx, int dy) {
+        PixelMask result = new PixelMask(newWidth, newHeight);
+        int fromX = Math.max(0, dx);
+        int toX = Math.min(newWidth, width + dx);
+        for (int y = Math.max(0, dy); y < Math.min(newHeight, height + dy); y++) {
+            int from = -1;
+            for (int x = fromX; x <= toX; x++) {
+                boolean set = x < toX && get(x - dx, y - dy);
+                if (set && from < 0) {
+                    from = x;
+                } else if (!set && from >= 0) {
+                    result.set(from, y, x - from, 1);
+                    from = -1;
+                }
+            }
+        }
+        return result;
+    }
+}
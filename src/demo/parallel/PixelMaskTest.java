@@ -0,0 +1,63 @@
+package demo.parallel;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PixelMaskTest {
+
+    // Прямоугольники, пересекающие границы слов, ставят ровно свои пиксели
+    @Test
+    public void testSetRectangle() {
+        PixelMask mask = new PixelMask(150, 10);
+        assertTrue(mask.isEmpty());
+        mask.set(60, 2, 70, 3);
+        assertEquals(70 * 3, mask.count());
+        for (int y = 0; y < 10; y++) {
+            for (int x = 0; x < 150; x++) {
+                assertEquals(x >= 60 && x < 130 && y >= 2 && y < 5, mask.get(x, y), x + "," + y);
+            }
+        }
+        mask.set(0, 0, 150, 10);
+        assertEquals(150 * 10, mask.count());
+    }
+
+    @Test
+    public void testShiftedByWholePixels() {
+        PixelMask mask = new PixelMask(100, 80);
+        mask.set(0, 0, 100, 80);
+        PixelMask moved = mask.shifted(100, 80, 7, -5);
+        for (int y = 0; y < 80; y++) {
+            for (int x = 0; x < 100; x++) {
+                assertEquals(x >= 7 && y < 75, moved.get(x, y), x + "," + y);
+            }
+        }
+    }
+
+    // Сдвиг частично заполненной маски в отрицательную сторону
+    @Test
+    public void testShiftedPartialMask() {
+        PixelMask mask = new PixelMask(20, 3);
+        mask.set(5, 1, 5, 2);
+        PixelMask moved = mask.shifted(20, 3, -3, -1);
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 20; x++) {
+                assertEquals(x >= 2 && x < 7 && y < 2, moved.get(x, y), x + "," + y);
+            }
+        }
+    }
+
+    // Изменение размера окна: новая маска другого размера
+    @Test
+    public void testShiftedToAnotherSize() {
+        PixelMask mask = new PixelMask(50, 40);
+        mask.set(0, 0, 50, 40);
+        PixelMask moved = mask.shifted(70, 30, 10, 0);
+        assertEquals(70, moved.getWidth());
+        assertEquals(30, moved.getHeight());
+        assertEquals(50 * 30, moved.count());
+        assertFalse(moved.get(9, 0));
+        assertTrue(moved.get(59, 29));
+        assertFalse(moved.get(60, 0));
+    }
+}
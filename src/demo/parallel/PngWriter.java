@@ -0,0 +1,390 @@
+package demo.parallel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Streaming PNG encoder for images which don't fit in memory at once. Lines
+ * are written top to bottom as they are rendered and deflated into IDAT
+ * chunks on the fly, so only a few segments are buffered whatever the size
+ * of the image is.
+ * <p>
+ * Lines are filtered into segments of about {@link #SEGMENT_SIZE} bytes and
+ * every segment is deflated by its own task, in parallel with the others
+ * and with the rendering of the following lines. Each task ends its deflate
+ * blocks with a sync flush, so their outputs are simply concatenated into
+ * one zlib stream, which is closed by an empty final block. The last 32 KB
+ * of the previous segment are given to a task as preset dictionary, so
+ * matches across segment boundaries are not lost, and the Adler-32 checksum
+ * of the stream is combined from the checksums of the segments.
+ * <p>
+ * Images are stored as 8-bit RGB with the Sub filter, which suits the
+ * smooth gradients and flat areas of fractals and keeps lines independent
+ * of each other. Pixels are taken as ARGB values and alpha is ignored,
+ * pixels are expected to be opaque.
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ */
+public final class PngWriter implements Closeable {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * Max size of the data of an IDAT chunk
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Filter type of every line, see the PNG specification
+     */
+    private static final int FILTER_SUB = 1;
+
+    /**
+     * Size of filtered data deflated by one task, the last segment of an
+     * image may be smaller and a segment holds at least one line
+     */
+    static final int SEGMENT_SIZE = 1 << 20;
+
+    /**
+     * Size of the deflate window, the preset dictionary of a segment
+     */
+    private static final int WINDOW_SIZE = 1 << 15;
+
+    /**
+     * Max number of segments being deflated, more segments block writing
+     * until the oldest one is done
+     */
+    private static final int MAX_PENDING = 2 * Runtime.getRuntime().availableProcessors();
+
+    /**
+     * zlib header: deflate with 32 KB window, default compression
+     */
+    private static final byte[] ZLIB_HEADER = {0x78, (byte) 0x9C};
+
+    /**
+     * Empty final deflate block with fixed Huffman codes, it ends the
+     * stream after the sync flushed segments
+     */
+    private static final byte[] FINAL_BLOCK = {0x03, 0x00};
+
+    private final DataOutputStream out;
+    private final int width, height;
+    private final Executor executor;
+    private final ChunkStream chunks;
+    private final ArrayDeque<Future<Segment>> pending = new ArrayDeque<>();
+    private final int segmentLines;
+
+    /**
+     * Filtered lines of the segment being filled, each line is filter type
+     * followed by filtered RGB bytes
+     */
+    private byte[] segment;
+    private int segmentSize;
+
+    /**
+     * Previous segment, the dictionary of the next one
+     */
+    private byte[] previous;
+    private int previousSize;
+    private long adler = 1;
+    private int lines;
+
+    /**
+     * Writes the PNG header. Segments are deflated in the common fork-join
+     * pool.
+     * @param out stream to write the image to, closed by {@link #close()}
+     * @param width width of the image
+     * @param height height of the image
+     * @throws IOException if writing fails
+     */
+    public PngWriter(OutputStream out, int width, int height) throws IOException {
+        this(out, width, height, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Writes the PNG header.
+     * @param out stream to write the image to, closed by {@link #close()}
+     * @param width width of the image
+     * @param height height of the image
+     * @param executor executor to deflate segments in, not shut down by
+     * {@link #close()}
+     * @throws IOException if writing fails
+     */
+    public PngWriter(OutputStream out, int width, int height, Executor executor) throws IOException {
+        if (width <= 0 || height <= 0 || width > (Integer.MAX_VALUE - 1) / 3) {
+            throw new IllegalArgumentException("Unsupported image size " + width + "x" + height);
+        }
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        this.executor = executor;
+        int lineSize = 1 + 3 * width;
+        this.segmentLines = Math.max(1, SEGMENT_SIZE / lineSize);
+        this.out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // bit depth
+        header[9] = 2; // RGB
+        writeChunk("IHDR", header, header.length);
+        chunks = new ChunkStream();
+        chunks.write(ZLIB_HEADER, 0, ZLIB_HEADER.length);
+    }
+
+    /**
+     * Writes the next lines of the image. Lines are copied, so the pixels
+     * may be reused once this method returns. Deflating is left to the
+     * executor, this method blocks only while too many segments are being
+     * deflated.
+     * @param pixels ARGB values line by line, {@code width} per line
+     * @param offset index of the first pixel of the first line
+     * @param count number of lines to write
+     * @throws IOException if writing fails
+     */
+    public void writeLines(int[] pixels, int offset, int count) throws IOException {
+        if (count > height - lines) {
+            throw new IllegalStateException("Image has only " + height + " lines");
+        }
+        int lineSize = 1 + 3 * width;
+        for (int y = 0; y < count; y++) {
+            if (segment == null) {
+                segment = new byte[segmentLines * lineSize];
+            }
+            segment[segmentSize] = FILTER_SUB;
+            int previousPixel = 0;
+            int index = offset + y * width;
+            for (int x = 0, i = segmentSize + 1; x < width; x++, i += 3) {
+                int argb = pixels[index + x];
+                segment[i] = (byte) ((argb >> 16) - (previousPixel >> 16));
+                segment[i + 1] = (byte) ((argb >> 8) - (previousPixel >> 8));
+                segment[i + 2] = (byte) (argb - previousPixel);
+                previousPixel = argb;
+            }
+            segmentSize += lineSize;
+            if (segmentSize == segment.length) {
+                submitSegment();
+            }
+        }
+        lines += count;
+    }
+
+    /**
+     * Finishes the image and closes the stream.
+     * @throws IOException if writing fails or not all lines were written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (segmentSize > 0) {
+                submitSegment();
+            }
+            while (!pending.isEmpty()) {
+                writeSegment();
+            }
+            chunks.write(FINAL_BLOCK, 0, FINAL_BLOCK.length);
+            byte[] trailer = new byte[4];
+            putInt(trailer, 0, (int) adler);
+            chunks.write(trailer, 0, trailer.length);
+            chunks.flush();
+            writeChunk("IEND", trailer, 0);
+        } finally {
+            for (Future<Segment> future : pending) {
+                future.cancel(false);
+            }
+            pending.clear();
+            out.close();
+        }
+        if (lines != height) {
+            throw new IOException("Only " + lines + " of " + height + " lines written");
+        }
+    }
+
+    /**
+     * Hands the filled segment over to the executor, writing the oldest
+     * pending segments first if there are too many of them.
+     */
+    private void submitSegment() throws IOException {
+        while (pending.size() >= MAX_PENDING) {
+            writeSegment();
+        }
+        byte[] data = segment;
+        int size = segmentSize;
+        byte[] dictionary = previous;
+        int dictionarySize = previousSize;
+        FutureTask<Segment> task = new FutureTask<>(() -> deflate(data, size, dictionary, dictionarySize));
+        pending.add(task);
+        executor.execute(task);
+        previous = data;
+        previousSize = size;
+        segment = null;
+        segmentSize = 0;
+    }
+
+    /**
+     * Waits for the oldest pending segment and writes it to IDAT chunks.
+     */
+    private void writeSegment() throws IOException {
+        Segment deflated;
+        try {
+            deflated = pending.peek().get();
+        } catch (ExecutionException e) {
+            throw new IOException("Deflating failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while deflating");
+        }
+        pending.remove();
+        chunks.write(deflated.data, 0, deflated.data.length);
+        adler = combineAdler32(adler, deflated.adler, deflated.size);
+    }
+
+    /**
+     * Deflates a segment into raw deflate blocks ending with a sync flush,
+     * so that they can be followed by blocks of the next segment.
+     * @param data filtered lines
+     * @param size number of bytes of data
+     * @param dictionary previous segment, null for the first one
+     * @param dictionarySize number of bytes of the previous segment
+     * @return deflated segment
+     */
+    static Segment deflate(byte[] data, int size, byte[] dictionary, int dictionarySize) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            if (dictionary != null) {
+                int length = Math.min(WINDOW_SIZE, dictionarySize);
+                deflater.setDictionary(dictionary, dictionarySize - length, length);
+            }
+            deflater.setInput(data, 0, size);
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(size / 4 + 64);
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int n;
+            do {
+                n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                deflated.write(buffer, 0, n);
+            } while (n == buffer.length);
+            Adler32 checksum = new Adler32();
+            checksum.update(data, 0, size);
+            return new Segment(deflated.toByteArray(), checksum.getValue(), size);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Combines Adler-32 checksums of two consecutive pieces of data, like
+     * adler32_combine() of zlib.
+     * @param adler1 checksum of the first piece
+     * @param adler2 checksum of the second piece
+     * @param length2 length of the second piece
+     * @return checksum of both pieces
+     */
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long rem = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = rem * sum1 % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + base - rem;
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= base << 1) {
+            sum2 -= base << 1;
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+        return sum1 | sum2 << 16;
+    }
+
+    private void writeChunk(String type, byte[] bytes, int length) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(bytes, 0, length);
+        out.writeInt(length);
+        out.write(name);
+        out.write(bytes, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] bytes, int index, int value) {
+        bytes[index] = (byte) (value >>> 24);
+        bytes[index + 1] = (byte) (value >>> 16);
+        bytes[index + 2] = (byte) (value >>> 8);
+        bytes[index + 3] = (byte) value;
+    }
+
+    /**
+     * Deflated segment with the checksum of its filtered data
+     */
+    static final class Segment {
+
+        final byte[] data;
+        final long adler;
+        final int size;
+
+        Segment(byte[] data, long adler, int size) {
+            this.data = data;
+            this.adler = adler;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Collects deflated data into IDAT chunks
+     */
+    private class ChunkStream extends OutputStream {
+
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int size;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, buffer.length - size);
+                System.arraycopy(b, off, buffer, size, n);
+                size += n;
+                off += n;
+                len -= n;
+                if (size == buffer.length) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (size > 0) {
+                writeChunk("IDAT", buffer, size);
+                size = 0;
+            }
+        }
+    }
+}
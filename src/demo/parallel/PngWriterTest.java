@@ -0,0 +1,137 @@
+package demo.parallel;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PngWriterTest {
+
+    // Изображение, записанное по полосам, читается ImageIO без потерь
+    @Test
+    public void testReadBack() throws IOException {
+        int width = 300;
+        int height = 251;
+        int[] pixels = new int[width * height];
+        Random random = new Random(1);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = i % 5 == 0 ? 0xFF000000 | random.nextInt(1 << 24) : Palette.OCEAN.get(i / width);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PngWriter writer = new PngWriter(out, width, height)) {
+            for (int y = 0; y < height; y += 100) {
+                writer.writeLines(pixels, y * width, Math.min(100, height - y));
+            }
+        }
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(pixels[y * width + x], image.getRGB(x, y), x + "," + y);
+            }
+        }
+    }
+
+    // Сегменты, сжатые параллельно, склеиваются в один поток zlib с верной
+    // контрольной суммой и дают те же пиксели
+    @Test
+    public void testParallelSegments() throws IOException, DataFormatException {
+        int width = 1000;
+        int height = 1500;
+        int[] pixels = new int[width * height];
+        Random random = new Random(2);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = i % 7 == 0 ? 0xFF000000 | random.nextInt(1 << 24) : Palette.CLASSIC.get(i / 3000 % Palette.SIZE);
+        }
+        assertTrue((long) height * (1 + 3 * width) > 3L * PngWriter.SEGMENT_SIZE);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PngWriter writer = new PngWriter(out, width, height, executor)) {
+            for (int y = 0; y < height; y += 37) {
+                writer.writeLines(pixels, y * width, Math.min(37, height - y));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        byte[] png = out.toByteArray();
+
+        // Inflater проверяет Adler-32 в конце потока
+        Inflater inflater = new Inflater();
+        inflater.setInput(idat(png));
+        byte[] raw = new byte[height * (1 + 3 * width)];
+        int n = 0;
+        while (!inflater.finished()) {
+            n += inflater.inflate(raw, n, raw.length - n);
+        }
+        inflater.end();
+        assertEquals(raw.length, n);
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(pixels[y * width + x], image.getRGB(x, y), x + "," + y);
+            }
+        }
+    }
+
+    @Test
+    public void testCombineAdler32() {
+        byte[] data = new byte[200_000];
+        new Random(3).nextBytes(data);
+        for (int split : new int[] {0, 1, 65521, 100_000, data.length}) {
+            Adler32 first = new Adler32();
+            first.update(data, 0, split);
+            Adler32 second = new Adler32();
+            second.update(data, split, data.length - split);
+            Adler32 whole = new Adler32();
+            whole.update(data);
+            assertEquals(whole.getValue(), PngWriter.combineAdler32(first.getValue(), second.getValue(),
+                    data.length - split), "split at " + split);
+        }
+    }
+
+    @Test
+    public void testMissingLines() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThrows(IOException.class, () -> {
+            try (PngWriter writer = new PngWriter(out, 10, 10)) {
+                writer.writeLines(new int[100], 0, 9);
+            }
+        });
+    }
+
+    /**
+     * Concatenates data of all IDAT chunks of a PNG file.
+     */
+    private static byte[] idat(byte[] png) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(png));
+        in.skipBytes(8);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        while (true) {
+            int length = in.readInt();
+            byte[] type = new byte[4];
+            in.readFully(type);
+            byte[] chunk = new byte[length];
+            in.readFully(chunk);
+            in.readInt();
+            if (new String(type, "US-ASCII").equals("IEND")) {
+                return data.toByteArray();
+            }
+            if (new String(type, "US-ASCII").equals("IDAT")) {
+                data.write(chunk);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package demo.parallel;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+
+/**
+ * Long-lived service running render tasks in its own fork/join pool, so
+ * rendering doesn't compete with other users of the common pool and no
+ * thread is created per render. A task is started in a worker of the pool
+ * and everything it forks, including parallel streams, stays in the same
+ * pool.
+ * <p>
+ * Only one render is current at a time, submitting a new one cancels the
+ * previous one. A cancelled task stops at the next tile boundary and its
+ * workers move on to the new task. Tasks are only seen as runnable futures,
+ * so the service doesn't depend on JavaFX and headless rendering can use it.
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ */
+final class RenderService {
+
+    private final ForkJoinPool pool;
+    private Future<?> current;
+
+    /**
+     * @param threads number of worker threads
+     * @param priority priority of worker threads, see
+     * {@link Thread#setPriority(int)}
+     */
+    RenderService(int threads, int priority) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+        }
+        if (priority < Thread.MIN_PRIORITY || priority > Thread.MAX_PRIORITY) {
+            throw new IllegalArgumentException("Invalid thread priority " + priority);
+        }
+        pool = new ForkJoinPool(threads, p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("MandelbrotSet render worker " + thread.getPoolIndex());
+            thread.setPriority(priority);
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Cancels the current render and starts a new one.
+     * @param <T> type of the task
+     * @param task task to run, cancelling it must stop the render
+     */
+    <T extends Runnable & Future<?>> void submit(T task) {
+        cancel();
+        current = task;
+        pool.execute(task);
+    }
+
+    /**
+     * Cancels the current render, if any.
+     */
+    void cancel() {
+        if (current != null) {
+            // The renderer stops at its own flag, interrupting would leave
+            // the interrupt status on a pooled worker for its next task
+            current.cancel(false);
+            current = null;
+        }
+    }
+
+    /**
+     * Renders an image in the pool and waits for it to finish, for
+     * rendering without JavaFX.
+     * @param renderer renderer to run
+     * @return time of rendering in milliseconds
+     */
+    long render(MandelbrotSetRenderer renderer) {
+        return pool.invoke(ForkJoinTask.adapt(renderer::render));
+    }
+
+    /**
+     * @return number of worker threads
+     */
+    int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Cancels the current render and stops worker threads.
+     */
+    void shutdown() {
+        cancel();
+        pool.shutdownNow();
+    }
+
+    /**
+     * Runs a fork/join task in the pool of the calling worker thread, or in
+     * the common pool when called outside of any fork/join pool.
+     * @param task task to run
+     */
+    static void invoke(ForkJoinTask<?> task) {
+        if (ForkJoinTask.inForkJoinPool()) {
+            task.invoke();
+        } else {
+            ForkJoinPool.commonPool().invoke(task);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package demo.parallel;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * In-memory cache of raw iteration counts of square tiles of the complex
+ * plane, so that areas visited before are not calculated again. Tiles are
+ * laid on the grid of pixels of a given scale anchored at zero: pixel
+ * (i, j) of the grid is the point (i * scale, j * scale), tile (tx, ty)
+ * holds pixels [tx * {@link #TILE_SIZE}, (tx + 1) * {@link #TILE_SIZE})
+ * horizontally and the same vertically. Images aligned to this grid share
+ * tiles whatever their position is.
+ * <p>
+ * A tile holds samples of its pixels the same way
+ * {@link MandelbrotSetRenderer} does, 0 for samples which were not calculated,
+ * e.g. outside of the image or when the render was cancelled. Putting a
+ * tile which is already cached fills its missing samples.
+ * <p>
+ * The cache is bounded by a memory budget, least recently used tiles are
+ * evicted first. It may be backed by a {@link DiskTileCache}, which is
+ * looked up when a tile is not in memory and receives every tile stored.
+ * All methods are thread safe.
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ */
+public final class TileCache {
+
+    /**
+     * Width and height of a tile in pixels
+     */
+    public static final int TILE_SIZE = 64;
+
+    /**
+     * Identifies a tile: scale level, position on the grid and everything
+     * iteration counts depend on
+     */
+    public static final class Key {
+
+        private final double scale;
+        private final long tileX, tileY;
+        private final FractalFormula formula;
+        private final int maxIterations;
+        private final int samples;
+
+        /**
+         * @param scale size of a pixel in the complex plane
+         * @param tileX x index of the tile on the grid
+         * @param tileY y index of the tile on the grid
+         * @param formula fractal formula
+         * @param maxIterations iteration limit
+         * @param samples number of samples per pixel
+         */
+        public Key(double scale, long tileX, long tileY, FractalFormula formula, int maxIterations, int samples) {
+            this.scale = scale;
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.formula = formula;
+            this.maxIterations = maxIterations;
+            this.samples = samples;
+        }
+
+        /**
+         * @return size of a pixel in the complex plane
+         */
+        public double getScale() {
+            return scale;
+        }
+
+        /**
+         * @return x index of the tile on the grid
+         */
+        public long getTileX() {
+            return tileX;
+        }
+
+        /**
+         * @return y index of the tile on the grid
+         */
+        public long getTileY() {
+            return tileY;
+        }
+
+        /**
+         * @return fractal formula
+         */
+        public FractalFormula getFormula() {
+            return formula;
+        }
+
+        /**
+         * @return iteration limit
+         */
+        public int getMaxIterations() {
+            return maxIterations;
+        }
+
+        /**
+         * @return number of samples per pixel
+         */
+        public int getSamples() {
+            return samples;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Double.doubleToLongBits(scale) == Double.doubleToLongBits(other.scale)
+                    && tileX == other.tileX && tileY == other.tileY
+                    && formula == other.formula && maxIterations == other.maxIterations
+                    && samples == other.samples;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(scale, tileX, tileY, formula, maxIterations, samples);
+        }
+
+        @Override
+        public String toString() {
+            return "Key{" + "scale=" + scale + ", tile=" + tileX + "," + tileY + ", formula=" + formula
+                    + ", maxIterations=" + maxIterations + ", samples=" + samples + '}';
+        }
+    }
+
+    /**
+     * Tiles in access order, the least recently used first
+     */
+    private final LinkedHashMap<Key, int[]> tiles = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final long budget;
+    private final DiskTileCache disk;
+    private long usedBytes;
+    private long hits, diskHits, misses, evictions;
+
+    /**
+     * @param budget max memory taken by iteration counts of cached tiles,
+     * in bytes
+     */
+    public TileCache(long budget) {
+        this(budget, null);
+    }
+
+    /**
+     * @param budget max memory taken by iteration counts of cached tiles,
+     * in bytes
+     * @param disk cache tiles are read from when they are not in memory
+     * and written to, null if there is none
+     */
+    public TileCache(long budget, DiskTileCache disk) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("Negative cache budget " + budget);
+        }
+        this.budget = budget;
+        this.disk = disk;
+    }
+
+    /**
+     * Returns iteration counts of a tile, counted as a hit, a disk hit or
+     * a miss.
+     * @param key tile
+     * @return copy of the counts, null if the tile is not cached
+     */
+    public int[] get(Key key) {
+        synchronized (this) {
+            int[] counts = tiles.get(key);
+            if (counts != null) {
+                hits++;
+                return counts.clone();
+            }
+        }
+        int[] stored = disk == null ? null : disk.get(key);
+        synchronized (this) {
+            if (stored == null) {
+                misses++;
+                return null;
+            }
+            diskHits++;
+            store(key, stored);
+            return stored;
+        }
+    }
+
+    /**
+     * Stores iteration counts of a tile. If the tile is already cached,
+     * its samples which are 0 are taken from the given counts. Least
+     * recently used tiles are evicted to keep within the budget. New and
+     * changed tiles are written to the disk cache.
+     * @param key tile
+     * @param counts {@link #TILE_SIZE} x {@link #TILE_SIZE} pixels line by
+     * line, samples of a pixel together, 0 for samples not calculated
+     */
+    public void put(Key key, int[] counts) {
+        int[] changed;
+        synchronized (this) {
+            changed = store(key, counts);
+        }
+        if (changed != null && disk != null) {
+            disk.put(key, changed);
+        }
+    }
+
+    /**
+     * Stores a tile in memory.
+     * @return copy of the resulting counts of the tile, null if the tile
+     * didn't change
+     */
+    private int[] store(Key key, int[] counts) {
+        long size = 4L * counts.length;
+        if (size > budget) {
+            return counts.clone();
+        }
+        int[] cached = tiles.get(key);
+        if (cached != null && cached.length == counts.length) {
+            boolean changed = false;
+            for (int i = 0; i < cached.length; i++) {
+                if (cached[i] == 0 && counts[i] != 0) {
+                    cached[i] = counts[i];
+                    changed = true;
+                }
+            }
+            return changed ? cached.clone() : null;
+        }
+        if (cached != null) {
+            tiles.remove(key);
+            usedBytes -= 4L * cached.length;
+        }
+        tiles.put(key, counts.clone());
+        usedBytes += size;
+        Iterator<Map.Entry<Key, int[]>> eldest = tiles.entrySet().iterator();
+        while (usedBytes > budget) {
+            usedBytes -= 4L * eldest.next().getValue().length;
+            eldest.remove();
+            evictions++;
+        }
+        return counts.clone();
+    }
+
+    /**
+     * @return number of tiles found by {@link #get(demo.parallel.TileCache.Key)}
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of tiles found by {@link #get(demo.parallel.TileCache.Key)}
+     * in the disk cache only
+     */
+    public synchronized long getDiskHits() {
+        return diskHits;
+    }
+
+    /**
+     * @return number of tiles not found by {@link #get(demo.parallel.TileCache.Key)}
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of tiles evicted to keep within the budget
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return number of cached tiles
+     */
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    /**
+     * @return memory taken by iteration counts of cached tiles, in bytes
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return max memory taken by iteration counts of cached tiles, in
+     * bytes
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "Tile cache: %d tiles, %.1f of %.1f MB, %d hits, %d disk hits, %d misses, %d evictions",
+                tiles.size(), usedBytes / 1048576d, budget / 1048576d, hits, diskHits, misses, evictions);
+    }
+}
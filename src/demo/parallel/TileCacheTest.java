@@ -0,0 +1,77 @@
+package demo.parallel;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TileCacheTest {
+
+    private static final int TILE = TileCache.TILE_SIZE * TileCache.TILE_SIZE;
+
+    private static TileCache.Key key(long x, long y) {
+        return new TileCache.Key(0.01, x, y, FractalFormula.MANDELBROT, 256, 1);
+    }
+
+    private static int[] tile(int value) {
+        int[] counts = new int[TILE];
+        Arrays.fill(counts, value);
+        return counts;
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        TileCache cache = new TileCache(1 << 20);
+        assertNull(cache.get(key(0, 0)));
+        cache.put(key(0, 0), tile(5));
+        assertArrayEquals(tile(5), cache.get(key(0, 0)));
+        assertNull(cache.get(key(0, 1)));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(4L * TILE, cache.getUsedBytes());
+    }
+
+    // Ключ различает масштаб, формулу и число сэмплов
+    @Test
+    public void testKeyFields() {
+        TileCache cache = new TileCache(1 << 20);
+        cache.put(key(3, -2), tile(1));
+        assertNull(cache.get(new TileCache.Key(0.02, 3, -2, FractalFormula.MANDELBROT, 256, 1)));
+        assertNull(cache.get(new TileCache.Key(0.01, 3, -2, FractalFormula.CUBIC, 256, 1)));
+        assertNull(cache.get(new TileCache.Key(0.01, 3, -2, FractalFormula.MANDELBROT, 256, 9)));
+        assertNotNull(cache.get(key(3, -2)));
+    }
+
+    // Вытесняется давно не использованная плитка, бюджет соблюдается
+    @Test
+    public void testLruEviction() {
+        TileCache cache = new TileCache(3 * 4L * TILE);
+        cache.put(key(0, 0), tile(1));
+        cache.put(key(1, 0), tile(2));
+        cache.put(key(2, 0), tile(3));
+        cache.get(key(0, 0));
+        cache.put(key(3, 0), tile(4));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.size());
+        assertNull(cache.get(key(1, 0)));
+        assertNotNull(cache.get(key(0, 0)));
+        assertNotNull(cache.get(key(3, 0)));
+        assertTrue(cache.getUsedBytes() <= cache.getBudget());
+    }
+
+    // Повторная запись дополняет пропущенные сэмплы и не затирает посчитанные
+    @Test
+    public void testPutMergesMissingSamples() {
+        TileCache cache = new TileCache(1 << 20);
+        int[] first = new int[TILE];
+        first[0] = 7;
+        cache.put(key(0, 0), first);
+        int[] second = tile(9);
+        cache.put(key(0, 0), second);
+        int[] merged = cache.get(key(0, 0));
+        assertEquals(7, merged[0]);
+        assertEquals(9, merged[1]);
+        assertEquals(1, cache.size());
+        assertEquals(4L * TILE, cache.getUsedBytes());
+    }
+}
@@ -0,0 +1,167 @@
+package demo.parallel;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load generator for {@link TileServer}, measuring latency percentiles and
+ * throughput. Run with
+ * <pre>
+ * java demo.parallel.TileLoadGenerator [-url u] [-clients n] [-requests n]
+ *     [-maxZoom n] [-seed n]
+ * </pre>
+ * Each client sends requests one after another, so the number of clients
+ * is the number of concurrent requests. Tiles are picked at random zoom
+ * levels from a 4x4 window around a point of the third preset location of
+ * {@link Main}, as if many viewers zoomed into the same spot, so that
+ * requests of the same tile meet in the queue and in the cache of the
+ * server. Statistics of the server are printed at the end.
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ */
+public final class TileLoadGenerator {
+
+    /**
+     * Point zoomed into, center of preset location 2
+     */
+    private static final double TARGET_R = (Benchmark.PRESETS[2][0] + Benchmark.PRESETS[2][2]) / 2;
+    private static final double TARGET_I = (Benchmark.PRESETS[2][1] + Benchmark.PRESETS[2][3]) / 2;
+
+    private String url = "http://localhost:8080";
+    private int clients = 16;
+    private int requests = 2000;
+    private int maxZoom = 16;
+    private long seed = 1;
+
+    public static void main(String[] args) {
+        TileLoadGenerator generator = new TileLoadGenerator();
+        try {
+            generator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid parameters: " + e.getMessage());
+            System.exit(1);
+        }
+        try {
+            generator.run();
+        } catch (IOException e) {
+            System.err.println("Failed to reach " + generator.url + ": " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.exit(1);
+        }
+    }
+
+    private void parse(String[] args) {
+        if (args.length % 2 != 0) {
+            throw new IllegalArgumentException("No value for " + args[args.length - 1]);
+        }
+        for (int i = 0; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "-url":
+                    url = value;
+                    break;
+                case "-clients":
+                    clients = Integer.parseInt(value);
+                    break;
+                case "-requests":
+                    requests = Integer.parseInt(value);
+                    break;
+                case "-maxZoom":
+                    maxZoom = Integer.parseInt(value);
+                    break;
+                case "-seed":
+                    seed = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (clients <= 0 || requests <= 0 || maxZoom < 0 || maxZoom > 62) {
+            throw new IllegalArgumentException("Clients and requests must be positive, max zoom 0-62: "
+                    + clients + ", " + requests + ", " + maxZoom);
+        }
+    }
+
+    private void run() throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        long[] latencies = new long[requests];
+        int[] statuses = new int[requests];
+        AtomicInteger next = new AtomicInteger();
+        Thread[] threads = new Thread[clients];
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            Random random = new Random(seed + c);
+            threads[c] = new Thread(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < requests) {
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(url + pickTile(random))).build();
+                    long sent = System.nanoTime();
+                    try {
+                        statuses[i] = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                    } catch (IOException e) {
+                        statuses[i] = -1;
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    latencies[i] = System.nanoTime() - sent;
+                }
+            }, "Tile load client " + c);
+            threads[c].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Map<Integer, Integer> counts = new TreeMap<>();
+        for (int status : statuses) {
+            counts.merge(status, 1, Integer::sum);
+        }
+        Arrays.sort(latencies);
+        System.out.printf(Locale.US, "%d requests, %d clients, %.2f s, %.1f requests/s%n",
+                requests, clients, seconds, requests / seconds);
+        System.out.println("Statuses " + counts + (counts.containsKey(-1) ? ", -1 is a failed connection" : ""));
+        System.out.printf(Locale.US, "Latency ms: p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n",
+                percentile(latencies, 0.5) / 1e6, percentile(latencies, 0.9) / 1e6,
+                percentile(latencies, 0.99) / 1e6, latencies[requests - 1] / 1e6);
+        HttpRequest stats = HttpRequest.newBuilder(URI.create(url + "/stats")).build();
+        System.out.print(client.send(stats, HttpResponse.BodyHandlers.ofString()).body());
+    }
+
+    /**
+     * @return path of a tile near the target point at a random zoom level
+     */
+    private String pickTile(Random random) {
+        int zoom = random.nextInt(maxZoom + 1);
+        long tiles = 1L << zoom;
+        long x = (long) ((TARGET_R - TileServer.MIN_R) / TileServer.SIZE * tiles) + random.nextInt(4) - 2;
+        long y = (long) ((TARGET_I - TileServer.MIN_I) / TileServer.SIZE * tiles) + random.nextInt(4) - 2;
+        x = Math.max(0, Math.min(tiles - 1, x));
+        y = Math.max(0, Math.min(tiles - 1, y));
+        return "/tiles/" + zoom + "/" + x + "/" + y + ".png";
+    }
+
+    /**
+     * @param sorted values in ascending order
+     * @param p fraction of values at or below the result
+     * @return nearest-rank percentile
+     */
+    private static long percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,258 @@
+package demo.parallel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded queue of tiles to render for {@link TileServer}, worked off by a
+ * fixed number of threads.
+ * <p>
+ * Requests of a tile which is already queued or being rendered get the
+ * result of that render instead of rendering it again. The newest requests
+ * are rendered first, because a map viewer asks for the tiles of the
+ * current view after the ones the user has already moved away from. When
+ * the queue is full the oldest request is shed, and requests waiting longer
+ * than the staleness limit are shed before they are rendered. Results of
+ * shed requests complete with {@link RejectedExecutionException}.
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ * @param <K> key of a tile
+ * @param <V> rendered tile
+ */
+final class TileRenderQueue<K, V> implements AutoCloseable {
+
+    private final Function<K, V> renderer;
+    private final int capacity;
+    private final long staleNanos;
+
+    /**
+     * Jobs queued or being rendered by their keys, guarded by this
+     */
+    private final Map<K, Job<K, V>> jobs = new HashMap<>();
+
+    /**
+     * Queued jobs, newest first, guarded by this
+     */
+    private final Deque<Job<K, V>> queue = new ArrayDeque<>();
+    private boolean closed;
+
+    private final LongAdder rendered = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+
+    /**
+     * Request of a tile and its result shared by all requesters
+     */
+    private static final class Job<K, V> {
+
+        final K key;
+        final long queued = System.nanoTime();
+        final CompletableFuture<V> result = new CompletableFuture<>();
+
+        Job(K key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Starts the rendering threads.
+     * @param workers number of tiles rendered at once
+     * @param capacity max number of queued tiles
+     * @param staleMillis time after which a queued tile isn't rendered
+     * @param renderer renders a tile, called on the rendering threads
+     */
+    TileRenderQueue(int workers, int capacity, long staleMillis, Function<K, V> renderer) {
+        if (workers <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Workers and capacity must be positive: " + workers
+                    + ", " + capacity);
+        }
+        this.renderer = renderer;
+        this.capacity = capacity;
+        this.staleNanos = TimeUnit.MILLISECONDS.toNanos(staleMillis);
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(this::work, "MandelbrotSet tile worker " + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Requests a tile.
+     * @param key key of the tile
+     * @return result of the render, shared with other requests of the same
+     * tile
+     */
+    CompletableFuture<V> submit(K key) {
+        List<Job<K, V>> rejected = new ArrayList<>();
+        CompletableFuture<V> result;
+        synchronized (this) {
+            if (closed) {
+                throw new RejectedExecutionException("Queue is closed");
+            }
+            Job<K, V> job = jobs.get(key);
+            if (job != null) {
+                coalesced.increment();
+                return job.result;
+            }
+            removeStale(rejected);
+            if (queue.size() >= capacity) {
+                Job<K, V> oldest = queue.removeLast();
+                jobs.remove(oldest.key);
+                rejected.add(oldest);
+                shed.increment();
+            }
+            job = new Job<>(key);
+            jobs.put(key, job);
+            queue.addFirst(job);
+            notify();
+            result = job.result;
+        }
+        reject(rejected);
+        return result;
+    }
+
+    /**
+     * @return number of tiles rendered
+     */
+    long getRendered() {
+        return rendered.sum();
+    }
+
+    /**
+     * @return number of requests which got the result of a render
+     * requested before
+     */
+    long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return number of requests shed because the queue was full
+     */
+    long getShed() {
+        return shed.sum();
+    }
+
+    /**
+     * @return number of requests shed because they waited too long
+     */
+    long getStale() {
+        return stale.sum();
+    }
+
+    /**
+     * @return number of tiles waiting to be rendered
+     */
+    synchronized int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * Sheds all queued tiles and lets the rendering threads end once they
+     * finish the tiles being rendered.
+     */
+    @Override
+    public void close() {
+        List<Job<K, V>> rejected;
+        synchronized (this) {
+            closed = true;
+            rejected = new ArrayList<>(queue);
+            for (Job<K, V> job : queue) {
+                jobs.remove(job.key);
+            }
+            queue.clear();
+            notifyAll();
+        }
+        reject(rejected);
+    }
+
+    private void work() {
+        try {
+            Job<K, V> job;
+            while ((job = take()) != null) {
+                V tile;
+                try {
+                    tile = renderer.apply(job.key);
+                } catch (RuntimeException | Error e) {
+                    finish(job);
+                    job.result.completeExceptionally(e);
+                    continue;
+                }
+                finish(job);
+                rendered.increment();
+                job.result.complete(tile);
+            }
+        } catch (InterruptedException e) {
+            // Ends the thread
+        }
+    }
+
+    /**
+     * Waits for the newest tile which isn't stale.
+     * @return job to render, null when the queue is closed
+     */
+    private Job<K, V> take() throws InterruptedException {
+        while (true) {
+            List<Job<K, V>> rejected = new ArrayList<>();
+            boolean taken = false;
+            Job<K, V> job = null;
+            synchronized (this) {
+                removeStale(rejected);
+                if (!queue.isEmpty() || closed) {
+                    job = queue.pollFirst();
+                    taken = true;
+                } else if (rejected.isEmpty()) {
+                    wait();
+                }
+            }
+            // Shed jobs are answered before waiting for more
+            reject(rejected);
+            if (taken) {
+                return job;
+            }
+        }
+    }
+
+    private synchronized void finish(Job<K, V> job) {
+        jobs.remove(job.key);
+    }
+
+    /**
+     * Removes queued jobs waiting longer than the staleness limit, they are
+     * the oldest ones at the end of the queue.
+     * @param rejected list to add the removed jobs to
+     */
+    private void removeStale(List<Job<K, V>> rejected) {
+        long now = System.nanoTime();
+        while (!queue.isEmpty() && now - queue.peekLast().queued > staleNanos) {
+            Job<K, V> job = queue.removeLast();
+            jobs.remove(job.key);
+            rejected.add(job);
+            stale.increment();
+        }
+    }
+
+    /**
+     * Completes results of shed jobs, outside of the lock because their
+     * dependent actions run right away.
+     */
+    private static <K, V> void reject(List<Job<K, V>> rejected) {
+        for (Job<K, V> job : rejected) {
+            job.result.completeExceptionally(new RejectedExecutionException("Tile " + job.key + " shed"));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package demo.parallel;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TileRenderQueueTest {
+
+    // Одновременные запросы одной плитки получают результат одной отрисовки
+    @Test
+    public void testCoalescing() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (TileRenderQueue<String, String> queue = new TileRenderQueue<>(2, 10, 60_000, key -> {
+            started.countDown();
+            await(release);
+            return "tile " + key;
+        })) {
+            CompletableFuture<String> first = queue.submit("a");
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            CompletableFuture<String> second = queue.submit("a");
+            CompletableFuture<String> third = queue.submit("a");
+            assertSame(first, second);
+            assertSame(first, third);
+            release.countDown();
+            assertEquals("tile a", first.get(10, TimeUnit.SECONDS));
+            assertEquals(1, queue.getRendered());
+            assertEquals(2, queue.getCoalesced());
+            // После отрисовки плитка запрашивается заново
+            assertEquals("tile a", queue.submit("a").get(10, TimeUnit.SECONDS));
+            assertEquals(2, queue.getRendered());
+        }
+    }
+
+    // Полная очередь сбрасывает самый старый запрос, новые рисуются первыми
+    @Test
+    public void testShedOldest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = new CopyOnWriteArrayList<>();
+        try (TileRenderQueue<String, String> queue = new TileRenderQueue<>(1, 2, 60_000, key -> {
+            started.countDown();
+            await(release);
+            order.add(key);
+            return key;
+        })) {
+            CompletableFuture<String> a = queue.submit("a");
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            CompletableFuture<String> b = queue.submit("b");
+            CompletableFuture<String> c = queue.submit("c");
+            CompletableFuture<String> d = queue.submit("d");
+            assertTrue(b.isCompletedExceptionally());
+            assertRejected(b);
+            assertEquals(1, queue.getShed());
+            assertEquals(2, queue.getQueued());
+            release.countDown();
+            assertEquals("a", a.get(10, TimeUnit.SECONDS));
+            assertEquals("c", c.get(10, TimeUnit.SECONDS));
+            assertEquals("d", d.get(10, TimeUnit.SECONDS));
+            assertEquals(List.of("a", "d", "c"), order);
+        }
+    }
+
+    // Запрос, ожидавший дольше предела, не рисуется
+    @Test
+    public void testStale() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (TileRenderQueue<String, String> queue = new TileRenderQueue<>(1, 10, 50, key -> {
+            started.countDown();
+            await(release);
+            return key;
+        })) {
+            CompletableFuture<String> a = queue.submit("a");
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            CompletableFuture<String> b = queue.submit("b");
+            Thread.sleep(200);
+            release.countDown();
+            assertEquals("a", a.get(10, TimeUnit.SECONDS));
+            assertRejected(b);
+            assertEquals(1, queue.getStale());
+            assertEquals(1, queue.getRendered());
+        }
+    }
+
+    @Test
+    public void testFailure() {
+        try (TileRenderQueue<String, String> queue = new TileRenderQueue<>(1, 10, 60_000, key -> {
+            throw new IllegalStateException(key);
+        })) {
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> queue.submit("a").get(10, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private static void assertRejected(CompletableFuture<String> result) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package demo.parallel;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits an image into square tiles and renders them in a fork/join pool.
+ * Tiles are rendered nearest first from a focus point, in a spiral going 
+ * outward from it, so the part of the image the user looks at is ready
+ * first. Workers take the next tile of this order from a shared counter, 
+ * so a worker which finishes early keeps taking tiles while others are 
+ * busy with expensive ones. Rows crossing the set cost orders of magnitude
+ * more than others, small tiles spread such expensive areas over all 
+ * workers much better than whole rows do.
+ * <p>
+ * Tile size 0 stands for the row scheduling: every line of the image is
+ * one unit of work, lines are ordered by distance from the focus too.
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ */
+final class TileScheduler {
+
+    /**
+     * Default tile size
+     */
+    static final int DEFAULT_TILE_SIZE = 32;
+
+    /**
+     * Renders one tile
+     */
+    interface Tile {
+
+        /**
+         * Renders a rectangle of the image
+         * @param x0 min x coordinate of the rectangle
+         * @param y0 min y coordinate of the rectangle
+         * @param x1 max x coordinate of the rectangle, exclusive
+         * @param y1 max y coordinate of the rectangle, exclusive
+         */
+        void render(int x0, int y0, int x1, int y1);
+    }
+
+    private final int width, height;
+    private final int tileWidth, tileHeight;
+    private final int columns, rows;
+
+    /**
+     * Tile indexes in the order of rendering, tiles are numbered line by
+     * line
+     */
+    private final int[] order;
+
+    /**
+     * Creates a scheduler rendering tiles outward from the center of the
+     * image.
+     * @param width width of the image
+     * @param height height of the image
+     * @param tileSize width and height of a tile, 0 to schedule whole lines
+     */
+    TileScheduler(int width, int height, int tileSize) {
+        this(width, height, tileSize, width / 2d, height / 2d);
+    }
+
+    /**
+     * @param width width of the image
+     * @param height height of the image
+     * @param tileSize width and height of a tile, 0 to schedule whole lines
+     * @param focusX x coordinate of the point to render outward from
+     * @param focusY y coordinate of the point to render outward from
+     */
+    TileScheduler(int width, int height, int tileSize, double focusX, double focusY) {
+        if (tileSize < 0) {
+            throw new IllegalArgumentException("Negative tile size " + tileSize);
+        }
+        this.width = width;
+        this.height = height;
+        tileWidth = tileSize == 0 ? Math.max(1, width) : tileSize;
+        tileHeight = tileSize == 0 ? 1 : tileSize;
+        columns = (width + tileWidth - 1) / tileWidth;
+        rows = (height + tileHeight - 1) / tileHeight;
+        order = spiral(focusX, focusY);
+    }
+
+    /**
+     * Orders tiles by distance of their centers from the focus, tiles at 
+     * the same distance by angle around it.
+     * @return tile indexes in the order of rendering
+     */
+    private int[] spiral(double focusX, double focusY) {
+        int count = getTileCount();
+        double[] distance = new double[count];
+        double[] angle = new double[count];
+        Integer[] indexes = new Integer[count];
+        for (int index = 0; index < count; index++) {
+            int x0 = index % columns * tileWidth;
+            int y0 = index / columns * tileHeight;
+            double dx = (x0 + Math.min(width, x0 + tileWidth)) / 2d - focusX;
+            double dy = (y0 + Math.min(height, y0 + tileHeight)) / 2d - focusY;
+            distance[index] = dx * dx + dy * dy;
+            angle[index] = Math.atan2(dy, dx);
+            indexes[index] = index;
+        }
+        Arrays.sort(indexes, Comparator.<Integer>comparingDouble(i -> distance[i])
+                .thenComparingDouble(i -> angle[i]));
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = indexes[i];
+        }
+        return result;
+    }
+
+    /**
+     * @return number of units of work the image is split into
+     */
+    int getTileCount() {
+        return columns * rows;
+    }
+
+    /**
+     * Renders all tiles of the image nearest to the focus first.
+     * @param parallel true to render tiles in parallel in the pool of the
+     * calling worker thread (see {@link RenderService#invoke}), false to
+     * render them one by one on the calling thread
+     * @param tile renderer of a tile
+     */
+    void run(boolean parallel, Tile tile) {
+        if (!parallel) {
+            for (int index : order) {
+                render(index, tile);
+            }
+            return;
+        }
+        RenderService.invoke(new TileWorker(new AtomicInteger(), tile, -1));
+    }
+
+    /**
+     * Renders a tile
+     * @param index index of the tile, tiles are numbered line by line
+     * @param tile renderer of a tile
+     */
+    private void render(int index, Tile tile) {
+        int x0 = index % columns * tileWidth;
+        int y0 = index / columns * tileHeight;
+        tile.render(x0, y0, Math.min(width, x0 + tileWidth), Math.min(height, y0 + tileHeight));
+    }
+
+    /**
+     * Takes tiles in the order of rendering until there are none left. The
+     * first worker forks a chain of helpers, one per thread of the pool, 
+     * idle threads steal them and join taking tiles.
+     */
+    private class TileWorker extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final AtomicInteger next;
+        private final Tile tile;
+        private final int helpers;
+
+        /**
+         * @param next index in the order of the next tile to render
+         * @param tile renderer of a tile
+         * @param helpers number of helpers to fork, negative for one per 
+         * other thread of the pool
+         */
+        TileWorker(AtomicInteger next, Tile tile, int helpers) {
+            this.next = next;
+            this.tile = tile;
+            this.helpers = helpers;
+        }
+
+        @Override
+        protected void compute() {
+            int left = helpers;
+            if (left < 0) {
+                left = (inForkJoinPool() ? getPool().getParallelism()
+                        : ForkJoinPool.getCommonPoolParallelism()) - 1;
+            }
+            TileWorker helper = null;
+            if (left > 0 && next.get() < order.length) {
+                helper = new TileWorker(next, tile, left - 1);
+                helper.fork();
+            }
+            int position;
+            while ((position = next.getAndIncrement()) < order.length) {
+                render(order[position], tile);
+            }
+            if (helper != null) {
+                helper.join();
+            }
+        }
+    }
+}
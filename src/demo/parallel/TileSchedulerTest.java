@@ -0,0 +1,72 @@
+package demo.parallel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TileSchedulerTest {
+
+    private static final int WIDTH = 101;
+    private static final int HEIGHT = 67;
+
+    /**
+     * Считает, сколько раз обработан каждый пиксель
+     */
+    private static AtomicIntegerArray cover(int tileSize, boolean parallel) {
+        AtomicIntegerArray hits = new AtomicIntegerArray(WIDTH * HEIGHT);
+        new TileScheduler(WIDTH, HEIGHT, tileSize).run(parallel, (x0, y0, x1, y1) -> {
+            assertTrue(x0 < x1 && y0 < y1);
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    hits.incrementAndGet(y * WIDTH + x);
+                }
+            }
+        });
+        return hits;
+    }
+
+    // Каждый пиксель обрабатывается ровно один раз, включая неполные плитки по краям
+    @Test
+    public void testEveryPixelOnce() {
+        for (int tileSize : new int[] {0, 1, 16, 32, 200}) {
+            for (boolean parallel : new boolean[] {false, true}) {
+                AtomicIntegerArray hits = cover(tileSize, parallel);
+                for (int i = 0; i < hits.length(); i++) {
+                    assertEquals(1, hits.get(i), "tile " + tileSize + " parallel " + parallel + " pixel " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTileCount() {
+        assertEquals(HEIGHT, new TileScheduler(WIDTH, HEIGHT, 0).getTileCount());
+        assertEquals(4 * 3, new TileScheduler(WIDTH, HEIGHT, 32).getTileCount());
+        assertEquals(1, new TileScheduler(WIDTH, HEIGHT, 200).getTileCount());
+        assertThrows(IllegalArgumentException.class, () -> new TileScheduler(WIDTH, HEIGHT, -1));
+    }
+
+    // Плитки идут по спирали от точки фокуса: первая содержит ее, дальше расстояние не убывает
+    @Test
+    public void testSpiralFromFocus() {
+        for (int tileSize : new int[] {0, 16}) {
+            double focusX = 90.5, focusY = 10.5;
+            List<int[]> tiles = new ArrayList<>();
+            new TileScheduler(WIDTH, HEIGHT, tileSize, focusX, focusY).run(false,
+                    (x0, y0, x1, y1) -> tiles.add(new int[] {x0, y0, x1, y1}));
+            int[] first = tiles.get(0);
+            assertTrue(first[0] <= focusX && focusX < first[2] && first[1] <= focusY && focusY < first[3]);
+            double last = 0;
+            for (int[] t : tiles) {
+                double dx = (t[0] + t[2]) / 2d - focusX;
+                double dy = (t[1] + t[3]) / 2d - focusY;
+                double distance = dx * dx + dy * dy;
+                assertTrue(distance >= last, "tile " + tileSize);
+                last = distance;
+            }
+        }
+    }
+}
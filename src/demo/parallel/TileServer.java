@@ -0,0 +1,342 @@
+package demo.parallel;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP server of the fractal as a slippy map, for web map viewers which
+ * take XYZ tile URLs such as {@code http://host:8080/tiles/{z}/{x}/{y}.png}.
+ * It doesn't need JavaFX. Run with
+ * <pre>
+ * java demo.parallel.TileServer [-port n] [-formula f] [-engine e] [-palette p]
+ *     [-antialias true|false] [-threads n] [-queueSize n] [-staleAfter ms]
+ *     [-cacheSize MB] [-maxZoom n]
+ * </pre>
+ * Tile 0/0/0 covers the square from -2.25-1.5i to 0.75+1.5i, every zoom
+ * level splits tiles of the previous one into four. Tiles are 256x256 PNG
+ * images rendered on demand by {@link MandelbrotSetRenderer}s, one tile per
+ * thread, through a {@link TileRenderQueue} which coalesces concurrent
+ * requests of the same tile and sheds requests when it is full or they
+ * wait too long. Shed requests are answered with 503. Encoded tiles are
+ * kept in a memory cache with least recently used eviction.
+ * <p>
+ * {@code /stats} returns counters of the cache and the queue as plain text,
+ * see {@link TileLoadGenerator} for measuring latency and throughput.
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ */
+public final class TileServer {
+
+    /**
+     * Width and height of tiles
+     */
+    static final int TILE_SIZE = 256;
+
+    /**
+     * Left, bottom and size of tile 0/0/0 in the complex plane
+     */
+    static final double MIN_R = -2.25;
+    static final double MIN_I = -1.5;
+    static final double SIZE = 3;
+
+    private static final Pattern TILE_PATH = Pattern.compile("/tiles/(\\d{1,2})/(\\d{1,19})/(\\d{1,19})\\.png");
+
+    private int port = 8080;
+    private FractalFormula formula = FractalFormula.MANDELBROT;
+    private MandelbrotSetRenderer.Engine engine = MandelbrotSetRenderer.Engine.SCALAR;
+    private Palette palette = Palette.CLASSIC;
+    private boolean antialias = true;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int queueSize = 256;
+    private long staleAfter = 10_000;
+    private long cacheSize = 256;
+    private int maxZoom = 60;
+
+    private HttpServer server;
+    private ExecutorService handlers;
+    private TileRenderQueue<String, byte[]> queue;
+    private PngCache cache;
+
+    /**
+     * Encoded tiles by their paths with least recently used eviction
+     */
+    private static final class PngCache {
+
+        private final LinkedHashMap<String, byte[]> tiles = new LinkedHashMap<>(16, 0.75f, true);
+        private final long budget;
+        private long size;
+        private long hits, misses;
+
+        PngCache(long budget) {
+            this.budget = budget;
+        }
+
+        synchronized byte[] get(String key) {
+            byte[] png = tiles.get(key);
+            if (png != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+            return png;
+        }
+
+        synchronized void put(String key, byte[] png) {
+            byte[] old = tiles.put(key, png);
+            size += png.length - (old == null ? 0 : old.length);
+            Iterator<Map.Entry<String, byte[]>> eldest = tiles.entrySet().iterator();
+            while (size > budget && eldest.hasNext()) {
+                size -= eldest.next().getValue().length;
+                eldest.remove();
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format(Locale.US, "cache.tiles %d%ncache.bytes %d%ncache.hits %d%ncache.misses %d%n",
+                    tiles.size(), size, hits, misses);
+        }
+    }
+
+    public static void main(String[] args) {
+        TileServer server = new TileServer();
+        try {
+            server.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid parameters: " + e.getMessage());
+            System.exit(1);
+        }
+        try {
+            server.start();
+        } catch (IOException e) {
+            System.err.println("Failed to listen on port " + server.port + ": " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("Serving tiles at http://localhost:" + server.getPort() + "/tiles/{z}/{x}/{y}.png");
+    }
+
+    void parse(String[] args) {
+        if (args.length % 2 != 0) {
+            throw new IllegalArgumentException("No value for " + args[args.length - 1]);
+        }
+        for (int i = 0; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "-port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "-formula":
+                    formula = FractalFormula.valueOf(value.toUpperCase(Locale.US));
+                    break;
+                case "-engine":
+                    engine = MandelbrotSetRenderer.Engine.valueOf(value.toUpperCase(Locale.US));
+                    break;
+                case "-palette":
+                    palette = Palette.valueOf(value.toUpperCase(Locale.US));
+                    break;
+                case "-antialias":
+                    antialias = Boolean.parseBoolean(value);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "-queueSize":
+                    queueSize = Integer.parseInt(value);
+                    break;
+                case "-staleAfter":
+                    staleAfter = Long.parseLong(value);
+                    break;
+                case "-cacheSize":
+                    cacheSize = Long.parseLong(value);
+                    break;
+                case "-maxZoom":
+                    maxZoom = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (threads <= 0 || queueSize <= 0 || cacheSize < 0) {
+            throw new IllegalArgumentException("Threads and queue size must be positive, cache size "
+                    + "not negative: " + threads + ", " + queueSize + ", " + cacheSize);
+        }
+        if (maxZoom < 0 || maxZoom > 62) {
+            // Tile indexes of deeper levels don't fit in long
+            throw new IllegalArgumentException("Max zoom must be 0-62: " + maxZoom);
+        }
+    }
+
+    /**
+     * Starts listening and rendering.
+     * @throws IOException if the port can't be bound
+     */
+    void start() throws IOException {
+        cache = new PngCache(cacheSize << 20);
+        queue = new TileRenderQueue<>(threads, queueSize, staleAfter, this::renderTile);
+        handlers = Executors.newFixedThreadPool(4, r -> {
+            Thread thread = new Thread(r, "MandelbrotSet tile server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(handlers);
+        server.createContext("/tiles/", this::handleTile);
+        server.createContext("/stats", this::handleStats);
+        server.start();
+    }
+
+    /**
+     * Stops listening, tiles being rendered are finished and dropped.
+     */
+    void stop() {
+        server.stop(0);
+        queue.close();
+        handlers.shutdown();
+    }
+
+    /**
+     * @return port the server listens on
+     */
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleTile(HttpExchange exchange) throws IOException {
+        Matcher matcher = TILE_PATH.matcher(exchange.getRequestURI().getPath());
+        if (!matcher.matches() || !isTile(matcher)) {
+            respond(exchange, 404, "text/plain", "No such tile\n".getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        String key = matcher.group(1) + "/" + matcher.group(2) + "/" + matcher.group(3);
+        byte[] png = cache.get(key);
+        if (png != null) {
+            respond(exchange, 200, "image/png", png);
+            return;
+        }
+        try {
+            queue.submit(key).whenComplete((tile, error) -> {
+                try {
+                    if (error == null) {
+                        respond(exchange, 200, "image/png", tile);
+                    } else {
+                        respondError(exchange, error);
+                    }
+                } catch (IOException e) {
+                    // Client has gone
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            respondError(exchange, e);
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        String stats = cache + String.format(Locale.US,
+                "queue.queued %d%nqueue.rendered %d%nqueue.coalesced %d%nqueue.shed %d%nqueue.stale %d%n",
+                queue.getQueued(), queue.getRendered(), queue.getCoalesced(), queue.getShed(),
+                queue.getStale());
+        respond(exchange, 200, "text/plain", stats.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @return true if zoom and indexes of a matched tile path are in range
+     */
+    private boolean isTile(Matcher matcher) {
+        try {
+            int zoom = Integer.parseInt(matcher.group(1));
+            long x = Long.parseLong(matcher.group(2));
+            long y = Long.parseLong(matcher.group(3));
+            return zoom <= maxZoom && x < 1L << zoom && y < 1L << zoom;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Renders and encodes a tile and puts it into the cache, called by the
+     * threads of the queue.
+     * @param key zoom, x and y separated by slashes
+     * @return PNG image
+     */
+    private byte[] renderTile(String key) {
+        String[] zxy = key.split("/");
+        int zoom = Integer.parseInt(zxy[0]);
+        long x = Long.parseLong(zxy[1]);
+        long y = Long.parseLong(zxy[2]);
+        double span = SIZE / (1L << zoom);
+        double scale = span / TILE_SIZE;
+        // Centers are exact, span is a power of two times 3
+        BigDecimal half = new BigDecimal(span / 2);
+        BigDecimal centerR = new BigDecimal(MIN_R).add(half.multiply(BigDecimal.valueOf(2 * x + 1)));
+        BigDecimal centerI = new BigDecimal(MIN_I).add(half.multiply(BigDecimal.valueOf(2 * y + 1)));
+        double re = centerR.doubleValue();
+        double im = centerI.doubleValue();
+        OffscreenImage image = new OffscreenImage(TILE_SIZE, TILE_SIZE);
+        MandelbrotSetRenderer renderer = new MandelbrotSetRenderer(false, image, TILE_SIZE, TILE_SIZE,
+                re - span / 2, im - span / 2, re + span / 2, im + span / 2,
+                0, 0, 0, 0, !antialias, engine.forScale(scale), formula, centerR, centerI, scale);
+        renderer.setPalette(palette, 0);
+        renderer.render();
+        int[] pixels = new int[TILE_SIZE * TILE_SIZE];
+        IntBuffer buffer = image.getBuffer();
+        buffer.rewind();
+        buffer.get(pixels);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        // A tile is a single segment, it is deflated right here
+        try (PngWriter writer = new PngWriter(png, TILE_SIZE, TILE_SIZE, Runnable::run)) {
+            writer.writeLines(pixels, 0, TILE_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] tile = png.toByteArray();
+        cache.put(key, tile);
+        return tile;
+    }
+
+    private static void respondError(HttpExchange exchange, Throwable error) throws IOException {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof RejectedExecutionException) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            respond(exchange, 503, "text/plain", "Server busy\n".getBytes(StandardCharsets.US_ASCII));
+        } else {
+            error.printStackTrace(System.err);
+            respond(exchange, 500, "text/plain", (error + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String type, byte[] body) throws IOException {
+        try (OutputStream out = exchange.getResponseBody()) {
+            exchange.getResponseHeaders().set("Content-Type", type);
+            if (status == 200 && type.equals("image/png")) {
+                // Tiles of a running server never change
+                exchange.getResponseHeaders().set("Cache-Control", "public, max-age=86400");
+            }
+            exchange.sendResponseHeaders(status, body.length);
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package demo.parallel;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TileServerTest {
+
+    // Плитка отдаётся как PNG 256x256, повторный запрос берётся из кэша
+    @Test
+    public void testTiles() throws Exception {
+        TileServer server = new TileServer();
+        server.parse(new String[] {"-port", "0", "-threads", "2", "-antialias", "false", "-maxZoom", "10"});
+        server.start();
+        try {
+            HttpClient client = HttpClient.newHttpClient();
+            String base = "http://localhost:" + server.getPort();
+
+            HttpResponse<byte[]> tile = get(client, base + "/tiles/0/0/0.png");
+            assertEquals(200, tile.statusCode());
+            assertEquals("image/png", tile.headers().firstValue("Content-Type").orElse(null));
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(tile.body()));
+            assertEquals(TileServer.TILE_SIZE, image.getWidth());
+            assertEquals(TileServer.TILE_SIZE, image.getHeight());
+            // -0.26+0i внутри главной кардиоиды, угол -2.25-1.5i снаружи множества
+            assertEquals(0xFF000000, image.getRGB(170, 128));
+            assertNotEquals(0xFF000000, image.getRGB(0, 0));
+
+            assertArrayEquals(tile.body(), get(client, base + "/tiles/0/0/0.png").body());
+            String stats = new String(get(client, base + "/stats").body(), "US-ASCII");
+            assertTrue(stats.contains("cache.hits 1"), stats);
+            assertTrue(stats.contains("queue.rendered 1"), stats);
+
+            assertEquals(404, get(client, base + "/tiles/1/2/0.png").statusCode());
+            assertEquals(404, get(client, base + "/tiles/11/0/0.png").statusCode());
+            assertEquals(404, get(client, base + "/tiles/0/0/0.jpg").statusCode());
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static HttpResponse<byte[]> get(HttpClient client, String url) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create(url)).build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+}
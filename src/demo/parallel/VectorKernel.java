@@ -0,0 +1,110 @@
+package demo.parallel;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Escape-time kernel which evaluates several points of a horizontal line at
+ * once, one point per lane of a {@link DoubleVector}. Lanes that escaped or
+ * were found to be inside of the set are switched off by a mask and stop 
+ * counting, the loop ends when all lanes are done or the iteration limit is 
+ * reached.
+ * <p>
+ * Requires {@code --add-modules jdk.incubator.vector}, check
+ * {@link MandelbrotSetRenderer.Engine#isAvailable()} before using this class.
+ * <p><i>
+ * This source code is provided to illustrate the usage of a given feature
+ * or technique and has been deliberately simplified. Additional steps
+ * required for a production-quality application, such as security checks,
+ * input validation and proper error handling, might not be present in
+ * this sample code.</i>
+ */
+final class VectorKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private VectorKernel() {
+    }
+
+    /**
+     * Calculates iteration counts for points with given real parts and the
+     * same imaginary part. Per lane the result is the same as
+     * {@link MandelbrotSetRenderer#calc(double, double)} returns.
+     * @param re real parts of the points
+     * @param im imaginary part of all the points
+     * @param counts array to store iteration counts to
+     * @param length number of points to calculate
+     */
+    static void calc(double[] re, double im, int[] counts, int length) {
+        int lanes = SPECIES.length();
+        int upper = SPECIES.loopBound(length);
+        DoubleVector ci = DoubleVector.broadcast(SPECIES, im);
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        double[] laneCounts = new double[lanes];
+        int x = 0;
+        for (; x < upper; x += lanes) {
+            DoubleVector cr = DoubleVector.fromArray(SPECIES, re, x);
+            DoubleVector zr = zero, zi = zero;
+            DoubleVector zr2 = zero, zi2 = zero;
+            DoubleVector savedR = zero, savedI = zero;
+            int checkpoint = 1;
+            
+            // Lanes in the main cardioid or the period-2 bulb are done already
+            VectorMask<Double> interior = interiorMask(cr, ci);
+            DoubleVector count = zero.blend(MandelbrotSetRenderer.CAL_MAX_COUNT, interior);
+            VectorMask<Double> active = interior.not();
+            int iteration = 0;
+            while (iteration < MandelbrotSetRenderer.CAL_MAX_COUNT && active.anyTrue()) {
+                DoubleVector zri = zr.mul(zi);
+                zi = zri.add(zri).add(ci);
+                zr = zr2.sub(zi2).add(cr);
+                zr2 = zr.mul(zr);
+                zi2 = zi.mul(zi);
+                iteration++;
+                count = count.add(1, active);
+                
+                // Lanes whose orbit came back to the saved point are periodic
+                VectorMask<Double> periodic = active
+                        .and(zr.compare(VectorOperators.EQ, savedR))
+                        .and(zi.compare(VectorOperators.EQ, savedI));
+                count = count.blend(MandelbrotSetRenderer.CAL_MAX_COUNT, periodic);
+                active = active.andNot(periodic);
+                if (iteration == checkpoint) {
+                    savedR = zr;
+                    savedI = zi;
+                    checkpoint <<= 1;
+                }
+                active = active.and(zr2.add(zi2).compare(VectorOperators.LT, MandelbrotSetRenderer.LENGTH_BOUNDARY));
+            }
+            count.intoArray(laneCounts, 0);
+            for (int lane = 0; lane < lanes; lane++) {
+                counts[x + lane] = (int) laneCounts[lane];
+            }
+        }
+
+        // Tail which doesn't fill a whole vector
+        for (; x < length; x++) {
+            counts[x] = MandelbrotSetRenderer.calc(re[x], im);
+        }
+    }
+
+    /**
+     * Vector version of 
+     * {@link MandelbrotSetRenderer#isInMainCardioidOrBulb(double, double)}.
+     * @param cr real parts of the points
+     * @param ci imaginary parts of the points
+     * @return mask of lanes inside of the main cardioid or the bulb
+     */
+    private static VectorMask<Double> interiorMask(DoubleVector cr, DoubleVector ci) {
+        DoubleVector im2 = ci.mul(ci);
+        DoubleVector xq = cr.sub(0.25);
+        DoubleVector q = xq.mul(xq).add(im2);
+        VectorMask<Double> inCardioid = q.compare(VectorOperators.LE, 1)
+                .and(q.mul(q.add(xq)).compare(VectorOperators.LE, im2.mul(0.25)));
+        DoubleVector xb = cr.add(1);
+        VectorMask<Double> inBulb = xb.mul(xb).add(im2).compare(VectorOperators.LE, 0.0625);
+        return inCardioid.or(inBulb);
+    }
+}